@@ -0,0 +1,239 @@
+import grammar.Budget;
+import grammar.Exceptions.ActionException;
+import grammar.Exceptions.LexerGrammarException;
+import grammar.Exceptions.BudgetExceededException;
+import grammar.Exceptions.NoRulesException;
+import grammar.Grammar;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Long-running conversion mode. The JVM, the ANTLR ATNs and the JIT stay warm between requests,
+ * so converting a small grammar takes milliseconds instead of a JVM start.
+ * <p>
+ * The protocol is line based, on stdin/stdout or on a socket bound to localhost. Requests:
+ * <pre>
+ *     PATH file            convert a grammar file
+ *     TEXT n               convert the grammar in the next n lines
+ *     PING                 answered with PONG
+ *     QUIT                 close the connection
+ * </pre>
+ * Every conversion is answered with
+ * <pre>
+ *     RESULT outcome Valid|Invalid|- nanos
+ *     TAGGED n             followed by n lines of the tagged grammar
+ *     INFO n               followed by n lines of the info file
+ *     END
+ * </pre>
+ * where the TAGGED and INFO blocks are only sent for processed grammars. A file that cannot be
+ * read is answered with {@code RESULT IO_ERROR - nanos} and {@code END}. A grammar the converter
+ * fails on is answered with {@code RESULT ERROR - nanos} and {@code END}, the exception is logged
+ * and the server goes on with the next request. Nothing is written to the results folder.
+ * <p>
+ * A request that is not understood, an unknown command or a {@code TEXT} line count that is not a
+ * number, is answered with {@code ERROR message} and {@code END} instead of a RESULT line.
+ * <p>
+ * The grammar of a {@code TEXT} request is converted as the file {@code text.g4} in the working
+ * directory of the server, so its {@code import} statements and {@code tokenVocab} option are
+ * looked up in that directory.
+ */
+public class ConversionServer {
+
+    private static final String WARMUP_GRAMMAR = """
+            grammar Warmup;
+            expr : expr '*' expr | expr '+' expr | '(' expr ')' | atom ;
+            atom : ID | INT | '[' list? ']' | '{' (ID ':' expr (',' ID ':' expr)*)? '}' ;
+            list : expr (',' expr)* ;
+            """;
+
+    private static final int WARMUP_ROUNDS = 200;
+
+    /**
+     * Converts a small grammar a few hundred times, so that the ATNs are deserialized and the
+     * hot paths are compiled before the first request.
+     */
+    public static void warmUp() {
+        long start = System.nanoTime();
+        ParserPool.warmUp(WARMUP_ROUNDS);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            convert(CharStreams.fromString(WARMUP_GRAMMAR, "warmup"), Paths.get("Warmup.g4"));
+        }
+        Converter.logger.log(Level.INFO, "warm-up took " + (System.nanoTime() - start) / 1_000_000 +
+                " ms, " + ParserPool.describe() + "\n");
+    }
+
+    /**
+     * Serves requests from {@code in} until it is closed or QUIT is received.
+     */
+    public static void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+        PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8), false);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String cmd = space < 0 ? line : line.substring(0, space);
+            String arg = space < 0 ? "" : line.substring(space + 1).strip();
+            switch (cmd) {
+                case "PATH" -> {
+                    long start = System.nanoTime();
+                    Path path;
+                    CharStream input;
+                    try {
+                        path = Paths.get(arg);
+                        input = GrammarInput.open(path);
+                    } catch (IOException | InvalidPathException e) {
+                        writer.println("RESULT " + GrammarResult.Outcome.IO_ERROR + " - " +
+                                               (System.nanoTime() - start));
+                        writer.println("END");
+                        break;
+                    }
+                    respond(writer, convert(input, path));
+                }
+                case "TEXT" -> {
+                    int n;
+                    try {
+                        n = Integer.parseInt(arg);
+                    } catch (NumberFormatException e) {
+                        writer.println("ERROR bad line count " + arg);
+                        writer.println("END");
+                        break;
+                    }
+                    StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < n; i++) {
+                        String l = reader.readLine();
+                        if (l == null) {
+                            break;
+                        }
+                        text.append(l).append('\n');
+                    }
+                    respond(writer, convert(CharStreams.fromString(text.toString(), "<text>"),
+                                            Paths.get("text.g4")));
+                }
+                case "PING" -> writer.println("PONG");
+                case "QUIT" -> {
+                    writer.flush();
+                    return;
+                }
+                default -> {
+                    writer.println("ERROR unknown command " + cmd);
+                    writer.println("END");
+                }
+            }
+            writer.flush();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Accepts connections on {@code port} of the loopback interface, each served by one of
+     * {@code workers} threads.
+     */
+    public static void listen(int port, int workers) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            Converter.logger.log(Level.INFO, "listening on " + server.getLocalSocketAddress());
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = server.accept();
+                pool.submit(() -> {
+                    try (socket) {
+                        serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException e) {
+                        Converter.logger.log(Level.WARNING, "connection failed: " + e);
+                    }
+                    return null;
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // failed if the converter threw something it does not expect
+    private record Response(GrammarResult result, String tagged, String info, long nanos,
+                            boolean failed) {
+    }
+
+    private static Response convert(CharStream input, Path path) {
+        long start = System.nanoTime();
+        GrammarResult result = new GrammarResult(path);
+        String tagged = null;
+        String info = null;
+        boolean failed = false;
+        try {
+            Budget budget = Budget.start(Converter.timeBudgetMillis, Converter.allocBudgetBytes);
+            Grammar grammar = Converter.convert(input, path.toString(), result, budget);
+            tagged = Converter.renderTagged(path.getFileName().toString().replace(".g4", ""),
+                                            grammar);
+            info = Converter.renderInfo(grammar, result.valid);
+            result.outcome = GrammarResult.Outcome.PROCESSED;
+        } catch (NoRulesException e) {
+            result.outcome = GrammarResult.Outcome.NO_RULES;
+        } catch (ActionException e) {
+            result.outcome = GrammarResult.Outcome.ACTION;
+        } catch (LexerGrammarException e) {
+            result.outcome = GrammarResult.Outcome.SKIPPED_LEXER;
+        } catch (BudgetExceededException e) {
+            result.outcome = GrammarResult.Outcome.BUDGET_EXCEEDED;
+            result.budgetPhase = e.phase;
+        } catch (RuntimeException e) {
+            // e.g. the visitor on a tree the parser recovered from, one grammar must not stop
+            // the server
+            Converter.logger.log(Level.WARNING, "conversion of " + path + " failed", e);
+            failed = true;
+        } finally {
+            result.endPhase();
+        }
+        return new Response(result, tagged, info, System.nanoTime() - start, failed);
+    }
+
+    private static void respond(PrintWriter writer, Response res) {
+        if (res.failed) {
+            writer.println("RESULT ERROR - " + res.nanos);
+            writer.println("END");
+            return;
+        }
+        String validity = res.result.isSkipped() ? "-" : res.result.valid ? "Valid" : "Invalid";
+        writer.println("RESULT " + res.result.outcome + " " + validity + " " + res.nanos);
+        if (res.tagged != null) {
+            printBlock(writer, "TAGGED", res.tagged);
+            printBlock(writer, "INFO", res.info);
+        }
+        writer.println("END");
+    }
+
+    private static void printBlock(PrintWriter writer, String name, String text) {
+        String[] lines = text.split("\n", -1);
+        int n = lines.length;
+        // the text ends with a new line
+        if (n > 0 && lines[n - 1].isEmpty()) {
+            n--;
+        }
+        writer.println(name + " " + n);
+        for (int i = 0; i < n; i++) {
+            writer.println(lines[i]);
+        }
+    }
+}
@@ -1,18 +1,27 @@
 import grammar.Exceptions.ActionException;
+import grammar.Exceptions.BudgetExceededException;
+import grammar.Exceptions.LexerGrammarException;
 import grammar.Exceptions.NoRulesException;
 import grammar.*;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.misc.Pair;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.apache.commons.io.FileUtils;
 
 import static java.util.stream.Collectors.toMap;
@@ -21,76 +30,204 @@ public class Converter {
 
     public static final boolean DO_BRUTEFORCE = false;
 
-    public static int taggedGrammars = 0;
-    public static int lrCount = 0;
-    public static int lrInVPGsCount = 0;
-    public static int diffWithBruteforce = 0;
-    public static String grammarsWithLR = "";
-    public static String differentGrammars = "";
     public static final String RES_PATH = "results";
-    public static int validGrammars = 0;
-    public static int grammarTooBig = 0;
-    public static int validTagged = 0;
-    public static int validLR = 0;
 
-    static Logger logger = Logger.getLogger(Converter.class.getName());
+    /**
+     * Version of the conversion. Bump it whenever a change makes the results of an unchanged
+     * grammar differ, so that incremental runs do not reuse stale results.
+     */
+    public static final String VERSION = "8";
 
-    public static void tagGrammar(File grammarFile)
-            throws IOException, NoRulesException, ActionException {
+    public static String grammarRoot = "grammars-v4";
 
-        ANTLRInputStream input = new ANTLRInputStream(new FileInputStream(grammarFile));
+    public static ResultWriter writer = ResultWriter.sync();
 
-        ANTLRv4Lexer lexer = new ANTLRv4Lexer(input);
+    // imported grammars, shared by all grammars of a run
+    public static final GrammarResolver resolver = new GrammarResolver();
 
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
+    // per grammar budgets, 0 for none. Without budgets, grammars with more than 70
+    // nonterminals are not validated
+    public static long timeBudgetMillis = 0;
+    public static long allocBudgetBytes = 0;
 
-        ANTLRv4Parser parser = new ANTLRv4Parser(tokens);
+    // build the rules while parsing instead of from a parse tree, see RuleCollector
+    public static boolean streaming = false;
 
-        ParseTree tree = parser.grammarSpec();
+    // keep the rules of every grammar in a binary file next to its results, see IrCodec
+    public static boolean irCache = false;
 
-        MyVisitor visitor = new MyVisitor();
+    // reject grammars from their tokens before parsing them, see GrammarPreScan
+    public static boolean preScan = true;
 
-        visitor.visit(tree);
+    // estimate the memory of the rules in both forms for the report, see CompactGrammar
+    public static boolean estimateIr = false;
+
+    static Logger logger = Logger.getLogger(Converter.class.getName());
 
-        var ruleMap = visitor.getRules();
+    /**
+     * Tags a single grammar and writes the results. Everything that ends up in the run summary is
+     * stored in {@code result}, nothing is shared between calls, so it is safe to call this from
+     * several worker threads at once.
+     * <p>
+     * Every phase is checked against {@code budget} and stops with a
+     * {@link BudgetExceededException} once it is used up.
+     */
+    public static void tagGrammar(File grammarFile, GrammarResult result, Budget budget)
+            throws IOException, NoRulesException, ActionException {
 
-        // map of symbol name to object
-        HashMap<String, Node> nodeMap = new HashMap<>();
-        for (var nt : visitor.getNonTerminals()) {
-            nodeMap.put(nt, new NonTerminal(nt));
+        enter(result, budget, Phase.PARSE);
+        ByteBuffer content = GrammarInput.read(grammarFile.toPath());
+        String sourceName = grammarFile.getAbsolutePath();
+
+        NonTerminal start = null;
+        if (irCache) {
+            String hash = ResultCache.hash(content);
+            File ir = IrCodec.file(grammarFile);
+            start = IrCodec.load(ir, hash, result);
+            result.irCached = start != null;
+            if (start == null) {
+                start = frontEnd(GrammarInput.decode(content, sourceName), sourceName, result,
+                                 budget);
+                try {
+                    if (start != null) {
+                        IrCodec.save(ir, hash, start, result);
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not write " + ir + ": " + e + "\n");
+                }
+            }
+        } else {
+            start = frontEnd(GrammarInput.decode(content, sourceName), sourceName, result, budget);
         }
-        for (var t : visitor.getTerminals()) {
-            nodeMap.put(t, new Terminal(t));
+
+        Grammar grammar = convert(start, sourceName, result, budget);
+
+        // write results to the result folder
+        enter(result, budget, Phase.WRITE);
+        String path = resultPath(grammarFile);
+        writeResults(path, grammarFile.getName(), grammar, result.valid, result);
+
+        if (DO_BRUTEFORCE) {
+            var br = grammar.bruteForceTagging();
+            var brCall = br.a;
+            var brRet = br.b;
+
+            result.differentFromBruteforce =
+                    !brCall.equals(grammar.call) || !brRet.equals(grammar.ret);
+            writeBruteForceThing(path, grammarFile.getName(), brCall, brRet,
+                                 (!brCall.equals(grammar.call) || !brRet.equals(grammar.ret)),
+                                 result);
         }
-        NonTerminal start = (NonTerminal) nodeMap.get(visitor.getStart());
+        result.endPhase();
+    }
+
+    /**
+     * Parses, tags, converts and validates the grammar read from {@code input} without writing
+     * anything. The flags and sizes are stored in {@code result}.
+     *
+     * @param sourceName used in messages only
+     * @return the converted grammar
+     */
+    public static Grammar convert(CharStream input, String sourceName, GrammarResult result,
+                                  Budget budget) throws NoRulesException, ActionException {
+        return convert(frontEnd(input, sourceName, result, budget), sourceName, result, budget);
+    }
 
-        //
-        ruleMap.forEach((k, alts) -> {
-            var rule = (NonTerminal) nodeMap.get(k);
-            for (var a : alts) {
-                ArrayList<Pair<Node, EbnfSuffix>> l = new ArrayList<>();
-                for (var elem : a) {
-                    l.add(new Pair<>(nodeMap.get(elem.a), elem.b));
+    /**
+     * Parses the grammar read from {@code input} and builds its rules, including the rules of
+     * imported grammars and with literals replaced by their tokens.
+     *
+     * @return the start rule, null if the grammar has no parser rules
+     * @throws LexerGrammarException if the pre-scan finds a lexer grammar
+     */
+    public static NonTerminal frontEnd(CharStream input, String sourceName, GrammarResult result,
+                                       Budget budget) throws ActionException {
+        enter(result, budget, Phase.PARSE);
+        if (preScan) {
+            result.preScan = GrammarPreScan.scan(ParserPool.lex(input, result.diagnostics));
+            if (result.preScan != GrammarPreScan.Verdict.CONVERT) {
+                ParserPool.release();
+            }
+            switch (result.preScan) {
+                case ACTION, PREDICATE -> throw new ActionException(
+                        result.preScan + " in a parser rule of " + sourceName);
+                case LEXER -> throw new LexerGrammarException("Lexer grammar: " + sourceName);
+                default -> {
                 }
-                rule.addRule(l);
             }
-        });
+        }
+        ParseTreeListener budgetListener = null;
+        if (budget.isLimited()) {
+            budgetListener = new ANTLRv4ParserBaseListener() {
+                @Override
+                public void enterEveryRule(ParserRuleContext ctx) {
+                    budget.checkpoint();
+                }
+            };
+        }
+
+        GrammarBuilder builder;
+        if (streaming) {
+            // the rules are built during the parse, so IR_BUILD only covers the grammar below
+            RuleCollector collector = new RuleCollector(result.diagnostics);
+            ParserPool.parse(input, result.diagnostics, false, budgetListener, collector);
+            result.llFallback = ParserPool.lastParseFellBack();
+            enter(result, budget, Phase.IR_BUILD);
+            builder = collector.getBuilder();
+        } else {
+            ParseTree tree = ParserPool.parse(input, result.diagnostics, true, budgetListener);
+            result.llFallback = ParserPool.lastParseFellBack();
+
+            enter(result, budget, Phase.IR_BUILD);
+            MyVisitor visitor = new MyVisitor(result.diagnostics);
 
+            visitor.visit(tree);
+
+            builder = visitor.getBuilder();
+        }
+        Path dir = Paths.get(sourceName).toAbsolutePath().getParent();
+        result.imports = resolver.mergeImports(builder, dir, result);
+        // '(' and LPAREN are the same terminal if the lexer defines LPAREN : '(' ;
+        Map<String, String> literals = builder.getLiterals();
+        LexerAliases vocab = resolver.aliases(dir, builder.getTokenVocab(), result);
+        result.aliasedTerminals = builder.canonicalize(
+                name -> literals.getOrDefault(name, vocab.tokenName(name)));
+        return builder.getStart();
+    }
+
+    /**
+     * Tags, converts and validates the grammar with the start rule {@code start}.
+     */
+    public static Grammar convert(NonTerminal start, String sourceName, GrammarResult result,
+                                  Budget budget) throws NoRulesException {
+        enter(result, budget, Phase.IR_BUILD);
         if (start == null) {
-            logger.log(Level.WARNING, "No rules found: " + grammarFile.getAbsolutePath() + "\n");
-            throw new NoRulesException("No rules found: " + grammarFile.getAbsolutePath());
+            result.diagnostics.warn("No rules found");
+            throw new NoRulesException("No rules found: " + sourceName);
         }
 
-        Grammar grammar = new Grammar(start);
+        if (estimateIr) {
+            // not part of any phase, so the report does not count it as building the IR
+            result.endPhase();
+            result.estimatedNodeIrBytes = CompactGrammar.estimatedNodeBytes(start);
+            result.estimatedCompactIrBytes = CompactGrammar.of(start).estimatedBytes();
+            enter(result, budget, Phase.IR_BUILD);
+        }
+
+        Grammar grammar = new Grammar(start, budget);
+        result.nonTerminals = grammar.getNotermCount();
+        result.terminals = grammar.getTermCount();
+        result.alternatives = grammar.getAltCount();
+        result.symbols = grammar.getSymbolCount();
 
+        enter(result, budget, Phase.LR_REMOVAL);
         boolean hadLR = false;
         if (grammar.isLeftRecursive()) {
-            lrCount += 1;
             grammar.removeLR();
-            grammarsWithLR += grammarFile.getName() + "\n";
             hadLR = true;
         }
 
+        enter(result, budget, Phase.TAGGING);
         grammar.tagByPrecedence(true);
 
         //remove non-terminals that are not matched in rules
@@ -99,169 +236,364 @@ public class Converter {
         // repeat tagging excluding these terminals
         grammar.tagByPrecedence(true);
 
+        enter(result, budget, Phase.SIMPLE_FORM);
         grammar.convertToSimpleForm();
 
         // test if grammar is convertible to VPG
 
+        enter(result, budget, Phase.DEP_GRAPH);
         boolean valid = false;
 
-        if (grammar.getNotermCount() <= 70) {
+        if (budget.isLimited() || grammar.getNotermCount() <= 70) {
             var graph = new DepGraph(grammar);
             graph.findCycles();
             valid = graph.isValid();
         } else {
-            grammarTooBig++;
+            result.tooBig = true;
         }
 
-        if (grammar.call.size() > 0) {
-            taggedGrammars += 1;
-            lrInVPGsCount += hadLR ? 1 : 0;
-            if (valid) {
-                validTagged += 1;
-                if (hadLR) {
-                    validLR ++;
-                }
-            }
-        }
-        if (valid) {
-            validGrammars++;
-        }
-
-
-        // write results to the result folder
-        String path = grammarFile.getParent().replace("grammars-v4", RES_PATH);
-        writeResults(path, grammarFile.getName(), grammar, valid);
-
-        if (DO_BRUTEFORCE) {
-            var br = grammar.bruteForceTagging();
-            var brCall = br.a;
-            var brRet = br.b;
+        result.hadLR = hadLR;
+        result.tagged = grammar.call.size() > 0;
+        result.valid = valid;
+        result.finalNonTerminals = grammar.getNotermCount();
+        result.callCount = grammar.call.size();
+        result.retCount = grammar.ret.size();
+        result.pairCount = new HashSet<>(grammar.pairs).size();
+        return grammar;
+    }
 
-            if (!brCall.equals(grammar.call) || !brRet.equals(grammar.ret)) {
-                diffWithBruteforce++;
-                differentGrammars += grammarFile.getName() + "\n";
-            }
-            writeBruteForceThing(path, grammarFile.getName(), brCall, brRet,
-                                 (!brCall.equals(grammar.call) || !brRet.equals(grammar.ret)));
-        }
+    private static void enter(GrammarResult result, Budget budget, Phase phase) {
+        result.startPhase(phase);
+        budget.enter(phase);
     }
 
     public static void writeBruteForceThing(String path, String fileName, Set<Terminal> call,
-                                            Set<Terminal> ret, boolean isDifferent)
-            throws IOException {
+                                            Set<Terminal> ret, boolean isDifferent,
+                                            GrammarResult result) {
         fileName = fileName.replace(".g4", "") + "_tagged_all" + ".txt";
         File br = new File(path + File.separator + fileName);
-        br.createNewFile();
-        PrintWriter brWriter = new PrintWriter(br);
-        brWriter.println("call\t" + call);
-        brWriter.println("ret \t" + ret);
-        brWriter.println(isDifferent ? "Different" : "Same");
-        brWriter.close();
+        String content = "call\t" + call + "\n" +
+                "ret \t" + ret + "\n" +
+                (isDifferent ? "Different" : "Same") + "\n";
+        writer.submit(br, content, result);
     }
 
-    public static void writeResults(String path, String fileName, Grammar g, boolean isValid)
-            throws IOException {
-        File dir = new File(path);
-        if (!dir.exists()) {
-            dir.mkdirs();
-        }
+    /**
+     * Renders the tagged grammar and the info file and hands them to {@link #writer}. Checking
+     * that the files do not exist yet is left to the writer.
+     */
+    public static void writeResults(String path, String fileName, Grammar g, boolean isValid,
+                                    GrammarResult result) {
         fileName = fileName.replace(".g4", "") + "_tagged" + ".txt";
         File grammar = new File(path + File.separator + fileName);
         File info = new File(path + File.separator + fileName.replace(".g4", "") + "_info.txt");
 
-        if (grammar.exists() || info.exists()) {
-            throw new IOException(
-                    "The grammar file already exists: " + grammar.getAbsolutePath() + "\n");
+        writer.submit(grammar, renderTagged(fileName.replace(".g4", ""), g), result);
+        writer.submit(info, renderInfo(g, isValid), result);
+    }
+
+    /**
+     * @return the content of the {@code _tagged.txt} file.
+     */
+    public static String renderTagged(String grammarName, Grammar g) {
+        return "grammar " + grammarName + ";\n" + g.printTaggedGrammar();
+    }
+
+    /**
+     * @return the content of the {@code _info.txt} file.
+     */
+    public static String renderInfo(Grammar g, boolean isValid) {
+        // by name, a hash set of them prints in a different order from run to run
+        var pairSet = g.pairs.stream().distinct()
+                .sorted(Comparator.comparing((Pair<Terminal, Terminal> p) -> p.a.getName())
+                                .thenComparing(p -> p.b.getName()))
+                .toList();
+
+        return "call\t" + g.call + "\n" +
+                "ret \t" + g.ret + "\n" +
+                "pairs: \t" + pairSet + "\n" +
+                (isValid ? "Valid" : "Invalid") + "\n";
+    }
+
+    /**
+     * @return {@link #VERSION} plus the options that change the results of a grammar.
+     */
+    public static String resultVersion() {
+        return timeBudgetMillis > 0 || allocBudgetBytes > 0 ? VERSION + "+budget" : VERSION;
+    }
+
+    /**
+     * @return the directory the results of {@code grammarFile} are written to.
+     */
+    public static String resultPath(File grammarFile) {
+        return grammarFile.getParent().replace(grammarRoot, RES_PATH);
+    }
+
+    /**
+     * @return the tagged grammar and info files written for {@code grammarFile}.
+     */
+    public static File[] resultFiles(File grammarFile) {
+        String path = resultPath(grammarFile);
+        String fileName = grammarFile.getName().replace(".g4", "") + "_tagged" + ".txt";
+        return new File[] {new File(path + File.separator + fileName),
+                new File(path + File.separator + fileName + "_info.txt")};
+    }
+
+    public static void deleteResults(File grammarFile) {
+        for (File f : resultFiles(grammarFile)) {
+            f.delete();
         }
+        new File(resultPath(grammarFile) + File.separator +
+                         grammarFile.getName().replace(".g4", "") + "_tagged_all" + ".txt").delete();
+    }
 
-        grammar.createNewFile();
-        info.createNewFile();
+    private static void deleteAllButIr(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                if (!p.toString().endsWith(".ir")) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
 
-        PrintWriter grammarWriter = new PrintWriter(grammar);
-        grammarWriter.println("grammar " + fileName.replace(".g4", "") + ";");
-        grammarWriter.print(g.printTaggedGrammar());
-        grammarWriter.close();
+    /**
+     * Like {@link #processFile(Path)}, but reuses the result stored in {@code cache} if the
+     * grammar did not change.
+     */
+    public static GrammarResult convertFile(Path path, ResultCache cache) {
+        if (cache == null) {
+            return processFile(path);
+        }
+        String hash;
+        try {
+            hash = ResultCache.hash(path);
+        } catch (IOException e) {
+            return processFile(path);
+        }
+        GrammarResult cached = cache.lookup(path, hash);
+        if (cached != null) {
+            cached.cached = true;
+            return cached;
+        }
+        deleteResults(path.toFile());
+        GrammarResult result = processFile(path);
+        cache.store(path, hash, result);
+        return result;
+    }
+
+    /**
+     * Tags the grammar at {@code path} and turns the exceptions that make us skip a grammar into
+     * the outcome of the returned result.
+     */
+    public static GrammarResult processFile(Path path) {
+        GrammarResult result = new GrammarResult(path);
+        if (path.toString().endsWith("Lexer.g4")) {
+            result.outcome = GrammarResult.Outcome.SKIPPED_LEXER;
+            logger.log(Level.INFO, () -> "skipping lexer: " + path + "\n");
+            return result;
+        }
+        logger.log(Level.INFO, () -> "tagging " + path + "\n");
+        try {
+            tagGrammar(path.toFile(), result, Budget.start(timeBudgetMillis, allocBudgetBytes));
+            result.outcome = GrammarResult.Outcome.PROCESSED;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "IOException: " + path + "\n");
+            result.outcome = GrammarResult.Outcome.IO_ERROR;
+        } catch (NoRulesException e) {
+            logger.log(Level.INFO, () -> "NoRulesException: " + path + "\n");
+            result.outcome = GrammarResult.Outcome.NO_RULES;
+        } catch (ActionException e) {
+            logger.log(Level.INFO, () -> "Action in " + path + "\n");
+            result.outcome = GrammarResult.Outcome.ACTION;
+        } catch (LexerGrammarException e) {
+            logger.log(Level.INFO, () -> "skipping lexer: " + path + "\n");
+            result.outcome = GrammarResult.Outcome.SKIPPED_LEXER;
+        } catch (BudgetExceededException e) {
+            logger.log(Level.INFO, () -> e.getMessage() + ": " + path + "\n");
+            result.outcome = GrammarResult.Outcome.BUDGET_EXCEEDED;
+            result.budgetPhase = e.phase;
+        } finally {
+            result.endPhase();
+        }
+        if (!writer.isAsync()) {
+            result.settleWrites();
+        }
+        return result;
+    }
 
-        var pairSet = new HashSet<>(g.pairs);
+    /**
+     * @return all grammar files under {@code root} in a fixed order.
+     */
+    public static List<Path> listGrammars(String root) throws IOException {
+        try (Stream<Path> paths = Files.walk(Paths.get(root))) {
+            return paths.filter(Converter::isGrammarFile).sorted().toList();
+        }
+    }
 
-        PrintWriter infoWriter = new PrintWriter(info);
-        infoWriter.println("call\t" + g.call);
-        infoWriter.println("ret \t" + g.ret);
-        infoWriter.println("pairs: \t" + pairSet);
-        infoWriter.println(isValid ? "Valid" : "Invalid");
-        infoWriter.close();
+    public static boolean isGrammarFile(Path path) {
+        return path.toFile().isFile() && path.toString().endsWith(".g4") &&
+                !GrammarPreScan.isExcluded(path);
     }
 
-    public static void main(String[] args) throws IOException, NoRulesException {
+    /**
+     * @return the {@code index}-th of {@code count} slices of {@code grammarFiles}. Every file
+     * ends up in exactly one slice, and the slices only depend on the sorted file list, so
+     * processes on different machines agree on them.
+     */
+    public static List<Path> shard(List<Path> grammarFiles, int index, int count) {
+        if (count <= 1) {
+            return grammarFiles;
+        }
+        List<Path> res = new ArrayList<>();
+        for (int i = index; i < grammarFiles.size(); i += count) {
+            res.add(grammarFiles.get(i));
+        }
+        return res;
+    }
 
-        String grammars = "grammars-v4";
+    /**
+     * Converts all {@code grammarFiles}, on the calling thread if {@code workers} is 1 and on a
+     * pool with {@code workers} threads otherwise. {@code cache} may be null to convert
+     * everything.
+     *
+     * @return the results in the order of {@code grammarFiles}
+     */
+    public static List<GrammarResult> convertAll(List<Path> grammarFiles, int workers,
+                                                 ResultCache cache) {
+        List<GrammarResult> results = new ArrayList<>(grammarFiles.size());
+        if (workers <= 1) {
+            for (Path path : grammarFiles) {
+                results.add(convertFile(path, cache));
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<GrammarResult>> futures = new ArrayList<>();
+            for (Path path : grammarFiles) {
+                futures.add(pool.submit(() -> convertFile(path, cache)));
+            }
+            for (var future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Conversion was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Conversion failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        ConverterOptions opts = ConverterOptions.parse(args);
+        if (opts.mergeFiles != null) {
+            RunStats total = new RunStats();
+            for (String file : opts.mergeFiles) {
+                total.mergeSummary(Paths.get(file));
+            }
+            total.printSummary(System.out);
+            return;
+        }
+        grammarRoot = opts.grammarRoot;
+        timeBudgetMillis = opts.timeBudgetMillis;
+        allocBudgetBytes = opts.allocBudgetMB * 1024 * 1024;
+
+        ParserPool.dfaStateLimit = opts.dfaStateLimit;
+        ParserPool.twoStage = opts.twoStageParsing;
+        streaming = opts.streaming;
+        irCache = opts.irCache;
+        preScan = opts.preScan;
+        estimateIr = opts.reportPath != null;
+        if (opts.warmUp) {
+            ParserPool.warmUp(50);
+        }
+
+        if (opts.serve || opts.port > 0) {
+            ConversionServer.warmUp();
+            if (opts.port > 0) {
+                ConversionServer.listen(opts.port, opts.workers);
+            } else {
+                // stray prints must not end up in the protocol
+                PrintStream protocolOut = System.out;
+                System.setOut(System.err);
+                ConversionServer.serve(System.in, protocolOut);
+            }
+            return;
+        }
         File resFile = new File(RES_PATH);
 
-        final int[] skipped = {0};
-        final int[] fileCounter = {0};
-        final int[] processedFiles = {0};
+        if (opts.watch) {
+            // results have to be visible right after a save
+            writer = ResultWriter.sync();
+            new GrammarWatcher(Paths.get(opts.grammarRoot), System.out).run();
+            return;
+        }
 
-        FileUtils.deleteDirectory(resFile);
-        if (!resFile.mkdir()) {
+        String shardSuffix = opts.isSharded() ?
+                "-" + opts.shardIndex + "-of-" + opts.shardCount : "";
+        ResultCache cache = null;
+        if (opts.incremental) {
+            cache = ResultCache.load(
+                    Paths.get(RES_PATH, ResultCache.MANIFEST_NAME + shardSuffix));
+        } else if (!opts.isSharded()) {
+            // shards share the folder, each one deletes the results of its grammars below
+            if (irCache) {
+                deleteAllButIr(resFile.toPath());
+            } else {
+                FileUtils.deleteDirectory(resFile);
+            }
+        }
+        if (!resFile.isDirectory() && !resFile.mkdirs()) {
             logger.log(Level.SEVERE, "Could not create directory " + resFile.getAbsolutePath());
             return;
         }
 
-        Files.walk(Paths.get(grammars)).forEach(path -> {
-
-            // uncomment this to test on a specific grammar that looks nice
-//                        if (!path.endsWith("testing.g4")) {
-//                            return;
-//                        }
-
-
-            if (path.toFile().isFile() && path.toString().endsWith(".g4") &&
-                    !path.toString().contains("antlr/antlr")) {
-                fileCounter[0] += 1;
-                if (path.toString().endsWith("Lexer.g4")) {
-                    skipped[0] += 1;
-                    logger.log(Level.INFO, "skipping lexer: " + path + "\n");
-                } else {
-                    logger.log(Level.INFO, "tagging " + path + "\n");
-                    try {
-                        tagGrammar(path.toFile());
-                        processedFiles[0] += 1;
-                    } catch (IOException e) {
-                        logger.log(Level.WARNING, "IOException: " + path + "\n");
-                        skipped[0] += 1;
-                    } catch (NoRulesException e) {
-                        logger.log(Level.INFO, "NoRulesException: " + path + "\n");
-                        skipped[0] += 1;
-                    } catch (ActionException e) {
-                        logger.log(Level.INFO, "Action in " + path + "\n");
-                        skipped[0] += 1;
-                    }
-                }
+        // to test on a specific grammar that looks nice, pass its directory as the root
+        RunStats stats = new RunStats();
+        writer = opts.writeQueue > 0 ? ResultWriter.async(opts.writeQueue) : ResultWriter.sync();
+        List<GrammarResult> results;
+        try {
+            List<Path> grammarFiles = shard(listGrammars(opts.grammarRoot), opts.shardIndex,
+                                            opts.shardCount);
+            if (opts.isSharded() && cache == null) {
+                // the folder was not cleaned, results of an earlier run would make the writes fail
+                grammarFiles.forEach(p -> deleteResults(p.toFile()));
             }
-        });
-
-        //        File generalInfo = new File(RES_PATH + File.separator + "general_info.txt");
-        //        PrintWriter generalInfoWriter = new PrintWriter(generalInfo);
-        //
-        //
-        //        generalInfoWriter.println("Total number of .g4 files: " + fileCounter[0]);
-        //        generalInfoWriter.println("Skipped files: " + skipped[0]);
-        //        generalInfoWriter.println("Processed files: " + processedFiles[0]);
-        //        generalInfoWriter.println("tagged grammars:  " + taggedGrammars);
-        //        generalInfoWriter.println("Left Recursive Grammars: " + lrCount);
-        //        generalInfoWriter.println("Out of which " + lrInVPGsCount + " had left recursion");
-        //        generalInfoWriter.close();
-
-        System.out.println("Total number of .g4 files: " + fileCounter[0]);
-        System.out.println("Skipped files: " + skipped[0]);
-        System.out.println("Processed files: " + processedFiles[0]);
-        System.out.println("Grammars with LR: " + lrCount);
-        System.out.println("Tagged grammars: " + taggedGrammars);
-        System.out.println("Tagged grammars with LR: " + lrInVPGsCount);
-        System.out.println("Valid grammars: " + validGrammars);
-        System.out.println("Valid tagged: " + validTagged);
-        System.out.println("ValidLr " + validLR);
-        System.out.println("skipped cause too big: " + grammarTooBig);
+            results = convertAll(grammarFiles, opts.workers, cache);
+        } finally {
+            writer.close();
+        }
+        // an asynchronous writer only knows now which files it could not write
+        for (GrammarResult res : results) {
+            res.settleWrites();
+            stats.record(res);
+        }
+
+        if (cache != null) {
+            cache.prune();
+            cache.save();
+        }
+
+        stats.printSummary(System.out);
+        writer.printStats(System.out);
+        System.out.println(ParserPool.describe());
+        System.out.println(resolver.describe());
+        System.out.println(SymbolPool.describe());
+        if (opts.isSharded()) {
+            stats.writeSummary(Paths.get(RES_PATH, "summary" + shardSuffix + ".txt"));
+        }
+
+        if (opts.reportPath != null) {
+            RunReport.write(Paths.get(opts.reportPath), stats.getResults());
+        }
     }
 
 
@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line options of {@link Converter#main}.
+ * <pre>
+ *     -j, --workers N     number of grammars converted in parallel, 0 means one per CPU core
+ *     -i, --incremental   keep the results of the last run and only convert changed grammars
+ *     --write-queue N     size of the queue of the asynchronous result writer, 0 writes the
+ *                         results on the converting thread
+ *     --time-budget MS    wall-clock budget per grammar
+ *     --alloc-budget MB   allocation budget per grammar. With any budget, grammars with more than
+ *                         70 nonterminals are validated too
+ *     --report FILE       write one record per grammar with timings and sizes, as CSV if FILE
+ *                         ends with .csv and as JSON lines otherwise
+ *     --serve             keep running and convert grammars requested on stdin, see
+ *                         {@link ConversionServer}
+ *     --port N            like --serve, but on a socket on localhost:N
+ *     --shard I/N         only convert the I-th of N deterministic slices of the grammars and
+ *                         write a partial summary to results/summary-I-of-N.txt
+ *     --warm-up           fill the parser's DFA cache before converting
+ *     --dfa-limit N       clear the parser's DFA and prediction context caches whenever
+ *                         they hold more than N states and contexts
+ *     --streaming         build the rules while parsing, without a parse tree
+ *     --ir-cache          keep the parsed rules of every grammar in results/.../X.ir and load
+ *                         them instead of parsing the grammar again if it did not change
+ *     --no-sll            always parse with full LL prediction instead of trying SLL first
+ *     --no-pre-scan       parse every grammar instead of rejecting grammars with actions and
+ *                         lexer grammars from their tokens first
+ *     --watch             re-tag grammars under the root whenever they change
+ *     merge FILE...       print the summary of the partial summaries of all shards
+ *     [root]              directory with the grammars, "grammars-v4" by default
+ * </pre>
+ */
+public class ConverterOptions {
+
+    public String grammarRoot = "grammars-v4";
+    public int workers = 1;
+    public boolean incremental = false;
+    public int writeQueue = 256;
+    public long timeBudgetMillis = 0;
+    public long allocBudgetMB = 0;
+    public String reportPath = null;
+    public boolean serve = false;
+    public int port = 0;
+    public int shardIndex = 0;
+    public int shardCount = 1;
+    public boolean watch = false;
+    public boolean warmUp = false;
+    public long dfaStateLimit = 0;
+    public boolean twoStageParsing = true;
+    public boolean streaming = false;
+    public boolean irCache = false;
+    public boolean preScan = true;
+    // non-null if the partial summaries in it should be merged instead of converting
+    public List<String> mergeFiles = null;
+
+    public static ConverterOptions parse(String[] args) {
+        ConverterOptions opts = new ConverterOptions();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-j", "--workers" -> opts.workers = Integer.parseInt(next(args, ++i));
+                case "-i", "--incremental" -> opts.incremental = true;
+                case "--write-queue" -> opts.writeQueue = Integer.parseInt(next(args, ++i));
+                case "--time-budget" -> opts.timeBudgetMillis = Long.parseLong(next(args, ++i));
+                case "--alloc-budget" -> opts.allocBudgetMB = Long.parseLong(next(args, ++i));
+                case "--report" -> opts.reportPath = next(args, ++i);
+                case "--serve" -> opts.serve = true;
+                case "--port" -> opts.port = Integer.parseInt(next(args, ++i));
+                case "--watch" -> opts.watch = true;
+                case "--warm-up" -> opts.warmUp = true;
+                case "--dfa-limit" -> opts.dfaStateLimit = Long.parseLong(next(args, ++i));
+                case "--no-sll" -> opts.twoStageParsing = false;
+                case "--streaming" -> opts.streaming = true;
+                case "--ir-cache" -> opts.irCache = true;
+                case "--no-pre-scan" -> opts.preScan = false;
+                case "--shard" -> {
+                    String[] shard = next(args, ++i).split("/");
+                    if (shard.length != 2) {
+                        throw new IllegalArgumentException("Expected --shard I/N");
+                    }
+                    opts.shardIndex = Integer.parseInt(shard[0]);
+                    opts.shardCount = Integer.parseInt(shard[1]);
+                }
+                default -> {
+                    if (args[i].startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    }
+                    if (i == 0 && args[i].equals("merge")) {
+                        opts.mergeFiles = new ArrayList<>();
+                    } else if (opts.mergeFiles != null) {
+                        opts.mergeFiles.add(args[i]);
+                    } else {
+                        opts.grammarRoot = args[i];
+                    }
+                }
+            }
+        }
+        if (opts.shardCount < 1 || opts.shardIndex < 0 || opts.shardIndex >= opts.shardCount) {
+            throw new IllegalArgumentException("Shard index must be in [0, N)");
+        }
+        if (opts.workers < 0) {
+            throw new IllegalArgumentException("Worker count must not be negative");
+        }
+        if (opts.workers == 0) {
+            opts.workers = Runtime.getRuntime().availableProcessors();
+        }
+        return opts;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    static String next(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+}
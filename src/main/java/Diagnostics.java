@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/**
+ * Messages about a single grammar: syntax errors of the lexer and the parser and warnings about
+ * constructs the converter ignores. They are collected instead of printed, so parallel workers do
+ * not wait for each other on the console, and they end up in the {@link RunReport}.
+ * <p>
+ * Only the first {@link #LIMIT} messages are kept, the rest are counted. Messages are logged on
+ * {@link Level#FINE} as well, and only formatted for the log if that level is enabled.
+ * Not thread-safe, every grammar has its own.
+ */
+public class Diagnostics extends BaseErrorListener {
+
+    public static final int LIMIT = 100;
+
+    private final List<String> messages = new ArrayList<>();
+    private int syntaxErrors = 0;
+    private int warnings = 0;
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                            int charPositionInLine, String msg, RecognitionException e) {
+        syntaxErrors++;
+        add("line " + line + ":" + charPositionInLine + " " + msg);
+    }
+
+    public void warn(String message) {
+        warnings++;
+        add(message);
+    }
+
+    private void add(String message) {
+        if (messages.size() < LIMIT) {
+            messages.add(message);
+        }
+        if (Converter.logger.isLoggable(Level.FINE)) {
+            Converter.logger.log(Level.FINE, message + "\n");
+        }
+    }
+
+    /**
+     * Counts syntax errors an earlier run found in the same grammar, from one of the caches.
+     * Their messages are not kept.
+     */
+    public void restoreSyntaxErrors(int count) {
+        syntaxErrors += count;
+    }
+
+    public int syntaxErrors() {
+        return syntaxErrors;
+    }
+
+    public int warnings() {
+        return warnings;
+    }
+
+    public List<String> messages() {
+        return Collections.unmodifiableList(messages);
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CodePointBuffer;
+import org.antlr.v4.runtime.CodePointCharStream;
+
+/**
+ * Reads grammar files into a {@link CharStream}. The file is read with a single bulk read, or
+ * mapped if it is larger than {@link #MAP_THRESHOLD}. The bytes are decoded in chunks of
+ * {@link #CHUNK} chars straight into the code point buffer of the stream, so the only full copy
+ * of the content besides the bytes is the stream itself. The channel is closed before returning,
+ * so no file handles are left open during long walks.
+ */
+public class GrammarInput {
+
+    // small files are cheaper to read than to map
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    public static final int CHUNK = 1 << 13;
+
+    public static CharStream open(Path file) throws IOException {
+        return decode(read(file), file.toString());
+    }
+
+    /**
+     * @return the content of {@code file}, read or mapped.
+     */
+    public static ByteBuffer read(Path file) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            if (size > MAP_THRESHOLD) {
+                // the mapping stays valid after the channel is closed
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // read until full or the file got shorter
+                }
+                bytes.flip();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the remaining bytes of {@code bytes} as UTF-8 without moving its position, like
+     * {@link org.antlr.v4.runtime.CharStreams#fromChannel} does for a channel.
+     */
+    static CharStream decode(ByteBuffer bytes, String sourceName) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = bytes.duplicate();
+        // there are at most as many chars as bytes
+        CodePointBuffer.Builder builder = CodePointBuffer.builder(in.remaining());
+        CharBuffer chunk = CharBuffer.allocate(CHUNK);
+        CoderResult result;
+        do {
+            result = decoder.decode(in, chunk, true);
+            appendChunk(builder, chunk);
+        } while (result.isOverflow());
+        while (decoder.flush(chunk).isOverflow()) {
+            appendChunk(builder, chunk);
+        }
+        appendChunk(builder, chunk);
+        return CodePointCharStream.fromBuffer(builder.build(), sourceName);
+    }
+
+    // a high surrogate at the end of the chunk stays in it until its low surrogate is decoded
+    private static void appendChunk(CodePointBuffer.Builder builder, CharBuffer chunk) {
+        chunk.flip();
+        builder.append(chunk);
+        chunk.compact();
+    }
+}
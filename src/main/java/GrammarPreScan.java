@@ -0,0 +1,170 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Classifies a grammar from its tokens only, before it is parsed. Grammars that are skipped
+ * anyway then cost a lexing pass instead of a parse and a visit. The tokens are kept by
+ * {@link ParserPool#lex}, so grammars that are converted are not lexed twice.
+ * <p>
+ * Only what {@link MyVisitor} would reject is reported: actions and predicates that are
+ * elements of parser rules, not named actions, rule actions like {@code @init}, exception
+ * handlers or anything in lexer rules.
+ */
+public class GrammarPreScan {
+
+    public enum Verdict {
+        CONVERT,
+        // an action block in a parser rule
+        ACTION,
+        // a semantic predicate in a parser rule
+        PREDICATE,
+        // a lexer grammar, it has no parser rules
+        LEXER
+    }
+
+    private enum State {
+        TOP,
+        // parser rule before its colon
+        PREQUEL,
+        // parser rule after its colon
+        BODY,
+        // lexer rule or a statement like import, skipped until the semicolon
+        SKIP
+    }
+
+    /**
+     * @return true for grammars we do not convert at all. They are decided by their path alone
+     * and never listed, so they are not even lexed.
+     */
+    public static boolean isExcluded(Path path) {
+        return path.toString().contains("antlr/antlr");
+    }
+
+    public static Verdict scan(List<Token> tokens) {
+        State state = State.TOP;
+        Set<String> rules = new HashSet<>();
+        // the last two tokens on the default channel
+        int prev = Token.INVALID_TYPE;
+        int prevPrev = Token.INVALID_TYPE;
+        boolean first = true;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (t.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            int type = t.getType();
+            if (first) {
+                first = false;
+                if (type == ANTLRv4Lexer.LEXER) {
+                    return Verdict.LEXER;
+                }
+            }
+            switch (type) {
+                case ANTLRv4Lexer.OPTIONS, ANTLRv4Lexer.TOKENS, ANTLRv4Lexer.CHANNELS ->
+                        i = skipTo(tokens, i, ANTLRv4Lexer.RBRACE);
+                case ANTLRv4Lexer.BEGIN_ARGUMENT -> i = skipTo(tokens, i, ANTLRv4Lexer.END_ARGUMENT);
+                case ANTLRv4Lexer.BEGIN_ACTION -> {
+                    int end = skipTo(tokens, i, ANTLRv4Lexer.END_ACTION);
+                    // (@init {...} : ...) is a rule action of a block, not an element
+                    if (state == State.BODY &&
+                            !(prevPrev == ANTLRv4Lexer.AT && isIdentifier(prev))) {
+                        return nextOnChannel(tokens, end) == ANTLRv4Lexer.QUESTION ?
+                                Verdict.PREDICATE : Verdict.ACTION;
+                    }
+                    i = end;
+                }
+                case ANTLRv4Lexer.AT -> {
+                    if (state == State.TOP) {
+                        // named action like @header {...} or @parser::members {...}
+                        i = skipTo(tokens, skipTo(tokens, i, ANTLRv4Lexer.BEGIN_ACTION),
+                                   ANTLRv4Lexer.END_ACTION);
+                    }
+                }
+                case ANTLRv4Lexer.RULE_REF -> {
+                    if (state == State.TOP) {
+                        // the visitor skips duplicate rules
+                        state = rules.add(t.getText()) ? State.PREQUEL : State.SKIP;
+                    }
+                }
+                case ANTLRv4Lexer.TOKEN_REF, ANTLRv4Lexer.FRAGMENT, ANTLRv4Lexer.GRAMMAR,
+                        ANTLRv4Lexer.IMPORT, ANTLRv4Lexer.MODE -> {
+                    if (state == State.TOP) {
+                        state = State.SKIP;
+                    }
+                }
+                case ANTLRv4Lexer.COLON -> {
+                    if (state == State.PREQUEL) {
+                        state = State.BODY;
+                    }
+                }
+                case ANTLRv4Lexer.SEMI -> state = State.TOP;
+                default -> {
+                }
+            }
+            prevPrev = prev;
+            prev = type;
+        }
+        return Verdict.CONVERT;
+    }
+
+    /**
+     * @return the names of the grammars in {@code import} statements and in the
+     * {@code tokenVocab} option, read from the tokens like {@link MyVisitor} reads them from the
+     * tree: the last name of each imported grammar and of the option value.
+     */
+    public static List<String> references(List<Token> tokens) {
+        List<String> res = new ArrayList<>();
+        boolean inImport = false;
+        boolean inOptions = false;
+        boolean inVocab = false;
+        String last = null;
+        for (Token t : tokens) {
+            if (t.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            switch (t.getType()) {
+                case ANTLRv4Lexer.IMPORT -> inImport = true;
+                case ANTLRv4Lexer.OPTIONS -> inOptions = true;
+                case ANTLRv4Lexer.RBRACE -> inOptions = false;
+                // import A = B ; imports B
+                case ANTLRv4Lexer.ASSIGN -> inVocab = inOptions && "tokenVocab".equals(last);
+                case ANTLRv4Lexer.COMMA, ANTLRv4Lexer.SEMI -> {
+                    if ((inImport || inVocab) && last != null) {
+                        res.add(last);
+                    }
+                    inImport = inImport && t.getType() == ANTLRv4Lexer.COMMA;
+                    inVocab = false;
+                }
+                default -> {
+                }
+            }
+            last = isIdentifier(t.getType()) ? t.getText() : null;
+        }
+        return res;
+    }
+
+    private static boolean isIdentifier(int type) {
+        return type == ANTLRv4Lexer.RULE_REF || type == ANTLRv4Lexer.TOKEN_REF;
+    }
+
+    // index of the first token of this type from i on, or the last index
+    private static int skipTo(List<Token> tokens, int i, int type) {
+        while (i < tokens.size() - 1 && tokens.get(i).getType() != type) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int nextOnChannel(List<Token> tokens, int i) {
+        for (int j = i + 1; j < tokens.size(); j++) {
+            if (tokens.get(j).getChannel() == Token.DEFAULT_CHANNEL) {
+                return tokens.get(j).getType();
+            }
+        }
+        return Token.EOF;
+    }
+}
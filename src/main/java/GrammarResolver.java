@@ -0,0 +1,135 @@
+import grammar.GrammarBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the grammars a grammar refers to with {@code import} or the {@code tokenVocab} option.
+ * They are looked up as {@code Name.g4} next to the grammar, like ANTLR does without a library
+ * directory.
+ * <p>
+ * Parsed grammars are cached by path and content hash, so a grammar that is imported by many
+ * others is parsed once per run and only parsed again if it changes. The parse trees are only
+ * read, the rules are built for every importing grammar with its own {@link GrammarBuilder}.
+ */
+public class GrammarResolver {
+
+    private record Parsed(String hash, ANTLRv4Parser.GrammarSpecContext tree,
+                          LexerAliases aliases, int syntaxErrors) {
+    }
+
+    private final Map<Path, Parsed> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder parses = new LongAdder();
+
+    /**
+     * @return the parse tree of {@code file}, parsed again only if its content changed.
+     */
+    public ANTLRv4Parser.GrammarSpecContext lookup(Path file) throws IOException {
+        return parsed(file).tree;
+    }
+
+    private Parsed parsed(Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        String hash = ResultCache.hash(content);
+        Path key = file.toAbsolutePath().normalize();
+        Parsed old = cache.get(key);
+        if (old != null && old.hash.equals(hash)) {
+            hits.increment();
+            return old;
+        }
+        // parsed outside of the map, so lookups of other grammars do not wait for the parse
+        parses.increment();
+        var input = GrammarInput.decode(ByteBuffer.wrap(content), file.toString());
+        // reported to every grammar that uses it, see mergeImports and aliases
+        Diagnostics errors = new Diagnostics();
+        var tree = ParserPool.parse(input, errors, true);
+        Parsed fresh = new Parsed(hash, tree, LexerAliases.of(tree), errors.syntaxErrors());
+        // another thread may have parsed the same content meanwhile, then all use its tree
+        return cache.merge(key, fresh, (cur, next) -> cur.hash.equals(next.hash) ? cur : next);
+    }
+
+    /**
+     * @return the grammar file {@code grammarName} refers to from a grammar in {@code dir}.
+     */
+    public static Path resolve(Path dir, String grammarName) {
+        return dir.resolve(grammarName + ".g4");
+    }
+
+    /**
+     * Adds the rules of the grammars imported by the grammar in {@code builder}, and of the
+     * grammars they import, unless a rule of the same name is defined already. As in ANTLR, the
+     * rules of the importing grammar win over imported ones, and earlier imports over later ones.
+     *
+     * @param dir    directory of the importing grammar
+     * @param result the files of the imported grammars are added to its dependencies, problems
+     *               with them to its diagnostics
+     * @return number of imported grammars that were found
+     */
+    public int mergeImports(GrammarBuilder builder, Path dir, GrammarResult result) {
+        List<String> imports = builder.getImports();
+        Set<String> merged = new HashSet<>();
+        int found = 0;
+        // imports grows while imported grammars are visited
+        for (int i = 0; i < imports.size(); i++) {
+            String name = imports.get(i);
+            if (!merged.add(name)) {
+                continue;
+            }
+            Path file = resolve(dir, name);
+            Parsed imported;
+            try {
+                imported = parsed(file);
+            } catch (IOException e) {
+                result.diagnostics.warn("Imported grammar not found: " + file);
+                continue;
+            }
+            warnSyntaxErrors(imported, file, result);
+            new MyVisitor(builder, true, result.diagnostics).visit(imported.tree);
+            result.dependencies.add(file.toString());
+            found++;
+        }
+        return found;
+    }
+
+    /**
+     * @param result the file of the lexer grammar is added to its dependencies, problems with it
+     *               to its diagnostics
+     * @return the literals of the lexer grammar {@code tokenVocab}, shared by all grammars that
+     * use it.
+     */
+    public LexerAliases aliases(Path dir, String tokenVocab, GrammarResult result) {
+        if (tokenVocab == null) {
+            return LexerAliases.NONE;
+        }
+        Path file = resolve(dir, tokenVocab);
+        try {
+            Parsed vocab = parsed(file);
+            warnSyntaxErrors(vocab, file, result);
+            result.dependencies.add(file.toString());
+            return vocab.aliases;
+        } catch (IOException e) {
+            result.diagnostics.warn("Token vocabulary not found: " + file);
+            return LexerAliases.NONE;
+        }
+    }
+
+    private static void warnSyntaxErrors(Parsed parsed, Path file, GrammarResult result) {
+        if (parsed.syntaxErrors > 0) {
+            result.diagnostics.warn(parsed.syntaxErrors + " syntax errors in " + file);
+        }
+    }
+
+    public String describe() {
+        return "imported grammars: " + cache.size() + " parsed " + parses.sum() + " times, " +
+                hits.sum() + " cache hits";
+    }
+}
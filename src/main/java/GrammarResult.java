@@ -0,0 +1,117 @@
+import grammar.Phase;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of converting a single grammar file. Produced by {@link Converter#processFile} and
+ * folded into a {@link RunStats} aggregate, so that the run summary does not depend on the order
+ * in which grammars were converted.
+ */
+public class GrammarResult {
+
+    public enum Outcome {
+        PROCESSED,
+        SKIPPED_LEXER,
+        NO_RULES,
+        ACTION,
+        IO_ERROR,
+        BUDGET_EXCEEDED
+    }
+
+    public final String path;
+    public final String name;
+    public Outcome outcome;
+    // phase that ran out of budget if the outcome is BUDGET_EXCEEDED
+    public Phase budgetPhase = null;
+
+    public boolean hadLR = false;
+    public boolean tagged = false;
+    public boolean valid = false;
+    public boolean tooBig = false;
+    public boolean differentFromBruteforce = false;
+    // the result was taken from the incremental cache, there are no timings or sizes
+    public boolean cached = false;
+    // the fast SLL parse failed and the grammar was parsed again with full LL
+    public boolean llFallback = false;
+    // the rules were loaded from the IR cache, the grammar was not parsed
+    public boolean irCached = false;
+    // verdict of the token pre-scan, null if there was none
+    public GrammarPreScan.Verdict preScan = null;
+
+    // nanoseconds spent in each phase, indexed by ordinal
+    public final long[] phaseNanos = new long[Phase.values().length];
+    // nanoseconds the result writer spent on the files of this grammar, only updated by the
+    // writer
+    public long diskWriteNanos = 0;
+    // a result file of this grammar could not be written, only set by the writer
+    public boolean writeFailed = false;
+
+    // size of the grammar after building it and after the conversion to simple form
+    public int nonTerminals = 0;
+    public int terminals = 0;
+    public int alternatives = 0;
+    public int symbols = 0;
+    public int finalNonTerminals = 0;
+    public int callCount = 0;
+    public int retCount = 0;
+    public int pairCount = 0;
+    // number of imported grammars whose rules were merged into this one
+    public int imports = 0;
+    // literal terminals replaced by the token of the same lexer rule
+    public int aliasedTerminals = 0;
+    // estimated bytes of the rules as Nodes and as a CompactGrammar, 0 if not estimated
+    public long estimatedNodeIrBytes = 0;
+    public long estimatedCompactIrBytes = 0;
+    // imported grammars and token vocabulary the result depends on
+    public final List<String> dependencies = new ArrayList<>();
+    // syntax errors and warnings, only kept for this run
+    public final Diagnostics diagnostics = new Diagnostics();
+
+    private Phase currentPhase = null;
+    private long phaseStart = 0;
+
+    public GrammarResult(Path path) {
+        this.path = path.toString();
+        this.name = path.getFileName().toString();
+    }
+
+    /**
+     * Ends the current phase, if any, and starts timing {@code phase}.
+     */
+    public void startPhase(Phase phase) {
+        endPhase();
+        currentPhase = phase;
+        phaseStart = System.nanoTime();
+    }
+
+    public void endPhase() {
+        if (currentPhase != null) {
+            phaseNanos[currentPhase.ordinal()] += System.nanoTime() - phaseStart;
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * Turns a failed write of the result files into {@link Outcome#IO_ERROR}. To be called once
+     * the writer is done with the files of this grammar, after {@link ResultWriter#close()} if
+     * it writes them on its own thread.
+     */
+    public void settleWrites() {
+        if (writeFailed) {
+            outcome = Outcome.IO_ERROR;
+        }
+    }
+
+    public boolean isSkipped() {
+        return outcome != Outcome.PROCESSED;
+    }
+
+    @Override
+    public String toString() {
+        if (outcome == Outcome.BUDGET_EXCEEDED) {
+            return path + "\tbudget exceeded in phase " + budgetPhase;
+        }
+        return path + "\t" + outcome;
+    }
+}
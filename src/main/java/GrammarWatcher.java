@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Watch mode: re-tags the grammars under the grammar root as soon as they are saved and rewrites
+ * only their {@code _tagged.txt} and {@code _info.txt} files. Editors often write a file in
+ * several steps, so changes are collected until there were no new events for
+ * {@link #DEBOUNCE_MILLIS}.
+ * <p>
+ * A grammar is also re-tagged when a grammar it imports or takes its {@code tokenVocab} from is
+ * saved, directly or through other grammars. The watcher keeps these edges in reverse. They are
+ * read from the tokens of every grammar on start and of every saved grammar, and completed with
+ * the {@link GrammarResult#dependencies} of each grammar it tags.
+ */
+public class GrammarWatcher {
+
+    public static final long DEBOUNCE_MILLIS = 150;
+
+    private final Path root;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    private final PrintStream out;
+
+    // by the absolute path of a file, the grammars that depend on it and the files it depends on
+    private final Map<Path, Set<Path>> dependents = new HashMap<>();
+    private final Map<Path, Set<Path>> dependencies = new HashMap<>();
+
+    public GrammarWatcher(Path root, PrintStream out) throws IOException {
+        this.root = root;
+        this.out = out;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        registerAll(root);
+        for (Path path : Converter.listGrammars(root.toString())) {
+            setDependencies(path, scanDependencies(path));
+        }
+    }
+
+    private void registerAll(Path start) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            for (Path dir : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                            StandardWatchEventKinds.ENTRY_MODIFY,
+                                            StandardWatchEventKinds.ENTRY_DELETE);
+                dirs.put(key, dir);
+            }
+        }
+    }
+
+    /**
+     * Watches until the thread is interrupted.
+     */
+    public void run() throws IOException {
+        out.println("watching " + root.toAbsolutePath());
+        TreeSet<Path> pending = new TreeSet<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = pending.isEmpty() ? watcher.take() :
+                        watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    // quiet for long enough
+                    process(pending);
+                    pending.clear();
+                    continue;
+                }
+                collect(key, pending);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } finally {
+            watcher.close();
+        }
+    }
+
+    private void collect(WatchKey key, TreeSet<Path> pending) throws IOException {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                    Files.isDirectory(path)) {
+                registerAll(path);
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.filter(Converter::isGrammarFile).forEach(pending::add);
+                }
+            } else if (path.toString().endsWith(".g4")) {
+                pending.add(path);
+            }
+        }
+        if (!key.reset()) {
+            dirs.remove(key);
+        }
+    }
+
+    private void process(Set<Path> changed) {
+        TreeSet<Path> paths = new TreeSet<>(changed);
+        for (Path path : changed) {
+            paths.addAll(dependentsOf(path));
+        }
+        for (Path path : paths) {
+            long start = System.nanoTime();
+            Converter.deleteResults(path.toFile());
+            if (!Files.exists(path)) {
+                // grammars that still refer to it keep their edges to it
+                setDependencies(path, Set.of());
+                out.println(path + "\tdeleted");
+                continue;
+            }
+            if (!Converter.isGrammarFile(path)) {
+                continue;
+            }
+            Set<Path> files = scanDependencies(path);
+            GrammarResult res;
+            try {
+                res = Converter.processFile(path);
+            } catch (RuntimeException e) {
+                // a grammar saved half-typed must not end watch mode
+                setDependencies(path, files);
+                out.println(path + "\tfailed: " + e);
+                Converter.logger.log(Level.FINE, "conversion of " + path + " failed", e);
+                continue;
+            }
+            // the resolver also finds the grammars imported by imported grammars
+            for (String dep : res.dependencies) {
+                files.add(key(Paths.get(dep)));
+            }
+            setDependencies(path, files);
+            String validity = res.isSkipped() ? "" : res.valid ? "\tValid" : "\tInvalid";
+            out.println(res + validity + "\t" + (System.nanoTime() - start) / 1_000_000 + " ms");
+            Converter.logger.log(Level.FINE, () -> "re-tagged " + path);
+        }
+    }
+
+    /**
+     * @return the grammars that depend on {@code file}, directly or through other grammars.
+     */
+    private Set<Path> dependentsOf(Path file) {
+        Set<Path> res = new HashSet<>();
+        Deque<Path> toVisit = new ArrayDeque<>(List.of(key(file)));
+        while (!toVisit.isEmpty()) {
+            for (Path dependent : dependents.getOrDefault(toVisit.pop(), Set.of())) {
+                if (res.add(dependent)) {
+                    toVisit.push(key(dependent));
+                }
+            }
+        }
+        return res;
+    }
+
+    // the files named by the import statements and the tokenVocab option of the grammar
+    private static Set<Path> scanDependencies(Path grammar) {
+        Set<Path> res = new HashSet<>();
+        try {
+            var input = GrammarInput.decode(GrammarInput.read(grammar), grammar.toString());
+            Path dir = key(grammar).getParent();
+            for (String name : GrammarPreScan.references(ParserPool.lex(input, null))) {
+                res.add(key(GrammarResolver.resolve(dir, name)));
+            }
+        } catch (IOException e) {
+            Converter.logger.log(Level.FINE, () -> "Could not read " + grammar + ": " + e);
+        } finally {
+            ParserPool.release();
+        }
+        return res;
+    }
+
+    private void setDependencies(Path grammar, Set<Path> files) {
+        Set<Path> old = dependencies.remove(key(grammar));
+        if (old != null) {
+            for (Path file : old) {
+                Set<Path> users = dependents.get(file);
+                users.remove(grammar);
+                if (users.isEmpty()) {
+                    dependents.remove(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        dependencies.put(key(grammar), files);
+        for (Path file : files) {
+            dependents.computeIfAbsent(file, f -> new HashSet<>()).add(grammar);
+        }
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
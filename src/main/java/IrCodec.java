@@ -0,0 +1,152 @@
+import grammar.CompactGrammar;
+import grammar.NonTerminal;
+import grammar.SymbolPool;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+/**
+ * Binary cache of the rules a grammar has after parsing, visiting, merging its imports and
+ * resolving literal aliases, so an unchanged grammar does not go through ANTLR again. Stored as
+ * {@code X.ir} next to the results of {@code X.g4}.
+ * <p>
+ * The rules are stored as a {@link CompactGrammar}, written with {@link DataOutputStream}:
+ * <pre>
+ *     int magic, short format, UTF grammar hash, UTF converter version, UTF dependencies
+ *     int imports, int aliasedTerminals, UTF pre-scan verdict or "-", boolean llFallback,
+ *     int syntaxErrors
+ *     int symbols, int terminals, then per symbol: UTF name
+ *     the rule starts, the alternative starts and the elements, each as int length and ints
+ * </pre>
+ * Only the rules reachable from the start rule are stored. The parse results in the header
+ * are restored on load, so the run summary counts a loaded grammar like a parsed one.
+ */
+public class IrCodec {
+
+    private static final int MAGIC = 0x43564952;
+    private static final short FORMAT = 3;
+
+    public static File file(File grammarFile) {
+        return new File(Converter.resultPath(grammarFile) + File.separator +
+                                grammarFile.getName().replace(".g4", "") + ".ir");
+    }
+
+    /**
+     * Stores the rules reachable from {@code start}. Has to be called before any pass changes
+     * them.
+     */
+    public static void save(File file, String hash, NonTerminal start, GrammarResult result)
+            throws IOException {
+        String dependencies = ResultCache.dependencies(result);
+        if (dependencies == null) {
+            return;
+        }
+        CompactGrammar rules = CompactGrammar.of(start);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT);
+            out.writeUTF(hash);
+            out.writeUTF(Converter.VERSION);
+            out.writeUTF(dependencies);
+            out.writeInt(result.imports);
+            out.writeInt(result.aliasedTerminals);
+            out.writeUTF(result.preScan == null ? "-" : result.preScan.name());
+            out.writeBoolean(result.llFallback);
+            out.writeInt(result.diagnostics.syntaxErrors());
+            out.writeInt(rules.symbolCount());
+            out.writeInt(rules.terminalCount());
+            for (int id = 0; id < rules.symbolCount(); id++) {
+                out.writeUTF(rules.name(id));
+            }
+            writeInts(out, rules.ruleStarts());
+            writeInts(out, rules.alternativeStarts());
+            writeInts(out, rules.elements());
+        }
+
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the start rule stored in {@code file}, or null if there is none for this content
+     * of the grammar, this converter version and the current dependencies.
+     */
+    public static NonTerminal load(File file, String hash, GrammarResult result) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readShort() != FORMAT || !in.readUTF().equals(hash) ||
+                    !in.readUTF().equals(Converter.VERSION)) {
+                return null;
+            }
+            String dependencies = in.readUTF();
+            if (!ResultCache.dependenciesUnchanged(dependencies)) {
+                return null;
+            }
+            int imports = in.readInt();
+            int aliasedTerminals = in.readInt();
+            String preScan = in.readUTF();
+            boolean llFallback = in.readBoolean();
+            int syntaxErrors = in.readInt();
+
+            String[] names = new String[in.readInt()];
+            int terminals = in.readInt();
+            for (int i = 0; i < names.length; i++) {
+                String name = in.readUTF();
+                names[i] = SymbolPool.isSynthesized(name) ? name : SymbolPool.intern(name);
+            }
+            CompactGrammar rules = CompactGrammar.of(names, terminals, readInts(in), readInts(in),
+                                                     readInts(in));
+
+            result.imports = imports;
+            result.aliasedTerminals = aliasedTerminals;
+            result.preScan = preScan.equals("-") ? null : GrammarPreScan.Verdict.valueOf(preScan);
+            result.llFallback = llFallback;
+            result.diagnostics.restoreSyntaxErrors(syntaxErrors);
+            if (!dependencies.equals("-")) {
+                for (String dep : dependencies.split(";")) {
+                    result.dependencies.add(dep.substring(0, dep.lastIndexOf('=')));
+                }
+            }
+            return rules.toNodes();
+        } catch (IOException | RuntimeException e) {
+            // truncated or from another format, parse the grammar again
+            Converter.logger.log(Level.FINE, () -> "Unreadable IR cache " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() / 4) {
+            throw new IOException("bad array length " + length);
+        }
+        int[] ints = new int[length];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the literals of a lexer grammar to the names of the tokens they define, for lexer rules
+ * like {@code LPAREN : '(' ;}. Parser rules may use either, so {@code '('} and {@code LPAREN}
+ * are the same terminal.
+ * <p>
+ * Filled once and only read afterwards, so one instance can be shared by all grammars using the
+ * same lexer grammar.
+ */
+public class LexerAliases {
+
+    public static final LexerAliases NONE = new LexerAliases();
+
+    // literal, with quotes, to token name
+    private final Map<String, String> tokenNames = new HashMap<>();
+
+    /**
+     * @return the aliases defined by the lexer rules of {@code tree}.
+     */
+    public static LexerAliases of(ANTLRv4Parser.GrammarSpecContext tree) {
+        LexerAliases aliases = new LexerAliases();
+        if (tree.rules() == null) {
+            return aliases;
+        }
+        for (var rule : tree.rules().ruleSpec()) {
+            if (rule.lexerRuleSpec() != null) {
+                String literal = literal(rule.lexerRuleSpec());
+                if (literal != null) {
+                    aliases.add(literal, rule.lexerRuleSpec().TOKEN_REF().getText());
+                }
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * @return the literal if the body of {@code ctx} is a single literal, null otherwise.
+     */
+    public static String literal(ANTLRv4Parser.LexerRuleSpecContext ctx) {
+        if (ctx.FRAGMENT() != null || ctx.TOKEN_REF() == null || ctx.lexerRuleBlock() == null) {
+            return null;
+        }
+        var alts = ctx.lexerRuleBlock().lexerAltList().lexerAlt();
+        if (alts.size() != 1 || alts.get(0).lexerElements() == null ||
+                alts.get(0).lexerCommands() != null) {
+            return null;
+        }
+        var elements = alts.get(0).lexerElements().lexerElement();
+        if (elements.size() != 1 || elements.get(0).lexerAtom() == null ||
+                elements.get(0).ebnfSuffix() != null) {
+            return null;
+        }
+        var terminal = elements.get(0).lexerAtom().terminalDef();
+        if (terminal == null || terminal.STRING_LITERAL() == null) {
+            return null;
+        }
+        return terminal.STRING_LITERAL().getText();
+    }
+
+    /**
+     * The first token defined with a literal wins.
+     */
+    public void add(String literal, String tokenName) {
+        tokenNames.putIfAbsent(literal, tokenName);
+    }
+
+    /**
+     * @return the token name of {@code literal}, null if it is not defined by a lexer rule.
+     */
+    public String tokenName(String literal) {
+        return tokenNames.get(literal);
+    }
+
+    public int size() {
+        return tokenNames.size();
+    }
+}
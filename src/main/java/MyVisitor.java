@@ -1,26 +1,88 @@
 import grammar.Exceptions.ActionException;
 import grammar.EbnfSuffix;
+import grammar.GrammarBuilder;
+import grammar.Node;
+import grammar.NonTerminal;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.stream.Stream;
 import org.antlr.v4.runtime.misc.Pair;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
-public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, EbnfSuffix>>> {
+/**
+ * Builds the rules of a grammar from its parse tree. The {@link Node}s come from a
+ * {@link GrammarBuilder}, so the rules are complete once the tree is visited.
+ */
+public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<Node, EbnfSuffix>>> {
 
-    ParseTreeProperty<String> ptp = new ParseTreeProperty<>();
+    // rule the alternatives below a ruleBlock are added to
+    ParseTreeProperty<NonTerminal> ptp = new ParseTreeProperty<>();
 
-    private final HashMap<String, List<List<Pair<String, EbnfSuffix>>>> rules = new HashMap<>();
+    private final GrammarBuilder builder;
 
-    private final Set<String> terminals = new HashSet<>();
+    // rules of imported grammars are expected to be defined already
+    private final boolean imported;
 
-    private final Set<String> nonTerminals = new HashSet<>();
+    private final Diagnostics diagnostics;
 
-    HashMap<String, String> newRuleSet = new HashMap<>();
+    // alternative the elements are appended to, and the symbol of the last atom or block
+    private ArrayList<Pair<Node, EbnfSuffix>> alternative = null;
+    private Node symbol = null;
 
-    private String start = null;
+    public MyVisitor() {
+        this(new Diagnostics());
+    }
+
+    public MyVisitor(Diagnostics diagnostics) {
+        this(new GrammarBuilder(), false, diagnostics);
+    }
+
+    /**
+     * @param imported    true if the tree is of a grammar imported by the one {@code builder}
+     *                    holds.
+     * @param diagnostics gets the warnings about the grammar
+     */
+    public MyVisitor(GrammarBuilder builder, boolean imported, Diagnostics diagnostics) {
+        this.builder = builder;
+        this.imported = imported;
+        this.diagnostics = diagnostics;
+    }
 
-    int newRuleCount = 0;
+    /*
+    delegateGrammar
+    : identifier ASSIGN identifier
+    | identifier
+    ;   */
+    @Override
+    public ArrayList<Pair<Node, EbnfSuffix>> visitDelegateGrammar(
+            ANTLRv4Parser.DelegateGrammarContext ctx) {
+        builder.addImport(ctx.getStop().getText());
+        return null;
+    }
+
+    /*
+    option
+    : identifier ASSIGN optionValue
+    ;   */
+    @Override
+    public ArrayList<Pair<Node, EbnfSuffix>> visitOption(ANTLRv4Parser.OptionContext ctx) {
+        if (ctx.identifier().getText().equals("tokenVocab")) {
+            builder.setTokenVocab(ctx.getStop().getText());
+        }
+        return null;
+    }
+
+    /*
+    lexerRuleSpec
+    : FRAGMENT? TOKEN_REF optionsSpec? COLON lexerRuleBlock SEMI
+    ;   */
+    @Override
+    public ArrayList<Pair<Node, EbnfSuffix>> visitLexerRuleSpec(
+            ANTLRv4Parser.LexerRuleSpecContext ctx) {
+        String literal = LexerAliases.literal(ctx);
+        if (literal != null) {
+            builder.addLiteral(literal, ctx.TOKEN_REF().getText());
+        }
+        return null;
+    }
 
     /*
         parserRuleSpec
@@ -28,19 +90,14 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
             exceptionGroup
         ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitParserRuleSpec(
+    public ArrayList<Pair<Node, EbnfSuffix>> visitParserRuleSpec(
             ANTLRv4Parser.ParserRuleSpecContext ctx) {
-        String rule = ctx.RULE_REF().getSymbol().getText();
-        if (!rules.containsKey(ctx.RULE_REF().getSymbol().getText())) {
-            rules.put(rule, new ArrayList<>());
-            nonTerminals.add(rule);
+        NonTerminal rule = builder.defineRule(ctx.RULE_REF().getSymbol().getText());
+        if (rule != null) {
             ptp.put(ctx.ruleBlock(), rule);
-            if (start == null) {
-                start = rule;
-            }
-            var ruleBlockRes = ctx.ruleBlock().accept(this);
-        } else {
-            Converter.logger.log(Level.SEVERE, "Potential duplicate keys");
+            ctx.ruleBlock().accept(this);
+        } else if (!imported) {
+            diagnostics.warn("Duplicate rule " + ctx.RULE_REF().getText());
         }
         return null;
     }
@@ -50,12 +107,12 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     : labeledAlt (OR labeledAlt)*
     ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitRuleAltList(
+    public ArrayList<Pair<Node, EbnfSuffix>> visitRuleAltList(
             ANTLRv4Parser.RuleAltListContext ctx) {
-        ArrayList<Pair<String, EbnfSuffix>> result = new ArrayList<>();
+        ArrayList<Pair<Node, EbnfSuffix>> result = new ArrayList<>();
         for (int i = 0; i < ctx.getChildCount(); i += 2) {
             var childResult = ctx.getChild(i).accept(this);
-            rules.get(ptp.get(ctx.parent)).add(childResult);
+            ptp.get(ctx.parent).addRule(childResult);
         }
         return result;
     }
@@ -67,13 +124,18 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     // explicitly allow empty alts
     ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitAlternative(
+    public ArrayList<Pair<Node, EbnfSuffix>> visitAlternative(
             ANTLRv4Parser.AlternativeContext ctx) {
-        ArrayList<Pair<String, EbnfSuffix>> result = new ArrayList<>();
-        for (int i = 0; i < ctx.element().size(); i++) {
-            var childResult = ctx.element(i).accept(this);
-            result = this.aggregateResult(result, childResult);
+        // alternatives of blocks inside this one are built in between
+        ArrayList<Pair<Node, EbnfSuffix>> outer = alternative;
+        // element() collects the children into a new list on every call
+        var elements = ctx.element();
+        alternative = new ArrayList<>(elements.size());
+        for (var element : elements) {
+            element.accept(this);
         }
+        ArrayList<Pair<Node, EbnfSuffix>> result = alternative;
+        alternative = outer;
         return result;
     }
 
@@ -85,38 +147,34 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     | actionBlock (QUESTION predicateOptions?)?
     ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitElement(ANTLRv4Parser.ElementContext ctx)
+    public ArrayList<Pair<Node, EbnfSuffix>> visitElement(ANTLRv4Parser.ElementContext ctx)
             throws ActionException {
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
+        EbnfSuffix suffix = EbnfSuffix.NONE;
+        symbol = null;
         if (ctx.labeledElement() != null) {
             // didn't see that yet
             //            System.out.println("LABELLED ELEMENT\t" + ctx.labeledElement().getText() + "\n In " +
             //                                       ctx.getText());
-            var lElement = ctx.labeledElement().accept(this);
-            if (ctx.ebnfSuffix() != null) {
-                var suffix = ctx.ebnfSuffix().accept(this);
-                res.add(combinePair(lElement.get(0), suffix.get(0)));
-            } else {
-                res.add(lElement.get(0));
-            }
-            return res;
+            ctx.labeledElement().accept(this);
+            suffix = suffix(ctx.ebnfSuffix());
         } else if (ctx.atom() != null) {
             // just a terminal or nonterminal
-            var atom = ctx.atom().accept(this);
-            if (ctx.ebnfSuffix() != null) {
-                var suffix = ctx.ebnfSuffix().accept(this);
-                res.add(combinePair(atom.get(0), suffix.get(0)));
-            } else {
-                res.add(atom.get(0));
-            }
-            return res;
+            ctx.atom().accept(this);
+            suffix = suffix(ctx.ebnfSuffix());
         } else if (ctx.ebnf() != null) {
             // stuff in parentheses
-            return ctx.ebnf().accept(this);
+            ctx.ebnf().block().accept(this);
+            if (ctx.ebnf().blockSuffix() != null) {
+                suffix = suffix(ctx.ebnf().blockSuffix().ebnfSuffix());
+            }
         } else if (ctx.actionBlock() != null) {
             throw new ActionException(
                     "ACTION BLOCK\t" + ctx.actionBlock().getText() + "\n In " + ctx.getText());
         }
+        // nothing matched, an element the parser recovered from or an empty label
+        if (symbol != null) {
+            alternative.add(new Pair<>(symbol, suffix));
+        }
         return null;
     }
 
@@ -125,13 +183,15 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     : identifier (ASSIGN | PLUS_ASSIGN) (atom | block)
     ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitLabeledElement(
+    public ArrayList<Pair<Node, EbnfSuffix>> visitLabeledElement(
             ANTLRv4Parser.LabeledElementContext ctx) {
         if (ctx.atom() != null) {
             return ctx.atom().accept(this);
-        } else {
+        } else if (ctx.block() != null) {
             return ctx.block().accept(this);
         }
+        // a label without an element, the parser reported it already
+        return null;
     }
 
     /*
@@ -142,25 +202,18 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
         | DOT elementOptions?
         ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitAtom(ANTLRv4Parser.AtomContext ctx) {
+    public ArrayList<Pair<Node, EbnfSuffix>> visitAtom(ANTLRv4Parser.AtomContext ctx) {
         if (ctx.terminalDef() != null) {
             // visit a terminal
-            var terminal = ctx.terminalDef().accept(this);
-            terminals.add(terminal.get(0).a);
-            return terminal;
+            return ctx.terminalDef().accept(this);
         } else if (ctx.ruleref() != null) {
             // visit a noneterminal ref
-            ArrayList<Pair<String, EbnfSuffix>> nonTerm = ctx.ruleref().accept(this);
-            nonTerminals.add(nonTerm.get(0).a);
-            return nonTerm;
+            return ctx.ruleref().accept(this);
         } else {
-            Pair<String, EbnfSuffix> notSet = new Pair<>(ctx.getText(), EbnfSuffix.NONE);
-            ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
-            res.add(notSet);
-            nonTerminals.add(notSet.a);
+            symbol = builder.nonTerminal(ctx.getText());
             //            System.out.println(
             //                    "a notSet or elementOptions  " + ctx.getText() + "\n");
-            return res;
+            return null;
         }
     }
 
@@ -169,32 +222,12 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     : RULE_REF argActionBlock? elementOptions?
     ;    */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitRuleref(ANTLRv4Parser.RulerefContext ctx) {
+    public ArrayList<Pair<Node, EbnfSuffix>> visitRuleref(ANTLRv4Parser.RulerefContext ctx) {
         if (ctx.argActionBlock() != null || ctx.argActionBlock() != null) {
-            System.out.println(
-                    "WARNING: " + ctx.getText() + " has an argActionBlock or elementOptions");
-        }
-        nonTerminals.add(ctx.RULE_REF().getText());
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
-        res.add(new Pair<>(ctx.RULE_REF().getText(), EbnfSuffix.NONE));
-        return res;
-    }
-
-    /*
-    ebnf
-    : block blockSuffix?
-    ;   */
-    @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitEbnf(ANTLRv4Parser.EbnfContext ctx) {
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
-        ArrayList<Pair<String, EbnfSuffix>> blockRes = ctx.block().accept(this);
-        if (ctx.blockSuffix() != null) {
-            var suffix = ctx.blockSuffix().accept(this);
-            res.add(new Pair<>(blockRes.get(0).a, suffix.get(0).b));
-        } else {
-            res.add(blockRes.get(0));
+            diagnostics.warn(ctx.getText() + " has an argActionBlock or elementOptions");
         }
-        return res;
+        symbol = builder.nonTerminal(ctx.RULE_REF().getText());
+        return null;
     }
 
     /*
@@ -202,37 +235,15 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     : LPAREN (optionsSpec? ruleAction* COLON)? altList RPAREN
     ;   */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitBlock(ANTLRv4Parser.BlockContext ctx) {
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
-        if (newRuleSet.containsKey(ctx.getText())) {
-            String rule = newRuleSet.get(ctx.getText());
-            ptp.put(ctx, rule);
-            res.add(new Pair<>(rule, EbnfSuffix.NONE));
-        } else {
-            newRuleCount++;
-            String rule = "_new_rule_" + newRuleCount;
-            newRuleSet.put(ctx.getText(), rule);
-            nonTerminals.add(rule);
-            rules.put(rule, new ArrayList<>());
-            ptp.put(ctx, rule);
-            res.add(new Pair<>(rule, EbnfSuffix.NONE));
+    public ArrayList<Pair<Node, EbnfSuffix>> visitBlock(ANTLRv4Parser.BlockContext ctx) {
+        // altList : alternative (OR alternative)*
+        var alts = ctx.altList().alternative();
+        List<ArrayList<Pair<Node, EbnfSuffix>>> rules = new ArrayList<>(alts.size());
+        for (var alt : alts) {
+            rules.add(alt.accept(this));
         }
-        super.visitBlock(ctx);
-        return res;
-    }
-
-    /*
-        altList
-        : alternative (OR alternative)*
-        ;   */
-    @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitAltList(ANTLRv4Parser.AltListContext ctx) {
-        ArrayList<Pair<String, EbnfSuffix>> result = new ArrayList<>();
-        for (int i = 0; i < ctx.getChildCount(); i += 2) {
-            var childResult = ctx.getChild(i).accept(this);
-            rules.get(ptp.get(ctx.parent)).add(childResult);
-        }
-        return result;
+        symbol = builder.block(rules);
+        return null;
     }
 
     /*
@@ -241,72 +252,51 @@ public class MyVisitor extends ANTLRv4ParserBaseVisitor<ArrayList<Pair<String, E
     | STRING_LITERAL elementOptions?
     ;     */
     @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitTerminalDef(
+    public ArrayList<Pair<Node, EbnfSuffix>> visitTerminalDef(
             ANTLRv4Parser.TerminalDefContext ctx) {
         if (ctx.elementOptions() != null) {
-            Converter.logger.log(Level.WARNING, "TerminalDef " + ctx.getText() + " has elementOptions " +
-                                       ctx.elementOptions().getText());
+            diagnostics.warn("TerminalDef " + ctx.getText() + " has elementOptions " +
+                                     ctx.elementOptions().getText());
         }
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
         if (ctx.TOKEN_REF() != null) {
-            res.add(new Pair<>(ctx.TOKEN_REF().getText(), EbnfSuffix.NONE));
+            symbol = builder.terminal(ctx.TOKEN_REF().getText());
         } else {
-            res.add(new Pair<>(ctx.STRING_LITERAL().getText(), EbnfSuffix.NONE));
+            symbol = builder.terminal(ctx.STRING_LITERAL().getText());
         }
-        return res;
+        return null;
     }
 
-    @Override
-    public ArrayList<Pair<String, EbnfSuffix>> visitEbnfSuffix(
-            ANTLRv4Parser.EbnfSuffixContext ctx) {
+    private static EbnfSuffix suffix(ANTLRv4Parser.EbnfSuffixContext ctx) {
+        if (ctx == null) {
+            return EbnfSuffix.NONE;
+        }
         if (ctx.getChildCount() == 2) {
             //System.out.println(ctx.parent.getText() + "\nThere's another question and I am not sure what that means");
         }
-        ArrayList<Pair<String, EbnfSuffix>> res = new ArrayList<>();
-        switch (ctx.getChild(0).getText()) {
-            case "?":
-                res.add(new Pair<>(null, EbnfSuffix.QUESTION));
-                break;
-            case "*":
-                res.add(new Pair<>(null, EbnfSuffix.STAR));
-                break;
-            case "+":
-                res.add(new Pair<>(null, EbnfSuffix.PLUS));
-                break;
-        }
-        return res;
+        return switch (ctx.getChild(0).getText()) {
+            case "?" -> EbnfSuffix.QUESTION;
+            case "*" -> EbnfSuffix.STAR;
+            case "+" -> EbnfSuffix.PLUS;
+            default -> EbnfSuffix.NONE;
+        };
     }
 
+    /**
+     * Only labeledAlt is visited with the default visitChildren, its only result is the one of
+     * its alternative.
+     */
     @Override
-    protected ArrayList<Pair<String, EbnfSuffix>> aggregateResult(
-            ArrayList<Pair<String, EbnfSuffix>> aggregate,
-            ArrayList<Pair<String, EbnfSuffix>> nextResult) {
-        if (aggregate == null) {
-            return nextResult;
-        } else if (nextResult == null) {
-            return aggregate;
-        }
-        return new ArrayList<>(Stream.concat(aggregate.stream(), nextResult.stream()).toList());
-    }
-
-    public HashMap<String, List<List<Pair<String, EbnfSuffix>>>> getRules() {
-        return rules;
-    }
-
-    public Set<String> getTerminals() {
-        return terminals;
-    }
-
-    public Set<String> getNonTerminals() {
-        return nonTerminals;
+    protected ArrayList<Pair<Node, EbnfSuffix>> aggregateResult(
+            ArrayList<Pair<Node, EbnfSuffix>> aggregate,
+            ArrayList<Pair<Node, EbnfSuffix>> nextResult) {
+        return aggregate == null ? nextResult : aggregate;
     }
 
-    private Pair<String, EbnfSuffix> combinePair(Pair<String, EbnfSuffix> p1,
-                                                 Pair<String, EbnfSuffix> p2) {
-        return new Pair<>(p1.a, p2.b);
+    public NonTerminal getStart() {
+        return builder.getStart();
     }
 
-    public String getStart() {
-        return start;
+    public GrammarBuilder getBuilder() {
+        return builder;
     }
 }
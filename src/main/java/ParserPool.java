@@ -0,0 +1,314 @@
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+
+/**
+ * One {@link ANTLRv4Lexer}, token stream and {@link ANTLRv4Parser} per thread, reset for every
+ * grammar instead of being allocated again.
+ * <p>
+ * The lexers and parsers of all threads share the prediction DFA cache of the generated classes.
+ * It makes parsing faster the more grammars were parsed, but it only grows, and so does the cache
+ * of prediction contexts the parsers share. If {@link #dfaStateLimit} is set, both are dropped
+ * whenever they hold more states and contexts together than that: the DFAs are cleared and the
+ * parsers of all threads get a new, empty context cache before their next parse. Parsing holds
+ * the read side of a lock and clearing the write side, so nothing is cleared under a running
+ * parse.
+ * <p>
+ * Grammars are parsed in two stages if {@link #twoStage} is set. The first stage uses SLL
+ * prediction and gives up at the first syntax error. It is much faster and almost always
+ * succeeds, only if it fails the grammar is parsed again with full LL prediction and the default
+ * error recovery and reporting. The tokens are kept, so the second stage does not lex again.
+ * <p>
+ * Syntax errors go to the console unless the caller passes its own error listener, like a
+ * {@link Diagnostics} of the grammar.
+ * <p>
+ * A grammar can be lexed with {@link #lex} before it is parsed, the next parse of the same input
+ * on that thread then uses these tokens instead of lexing again.
+ */
+public class ParserPool {
+
+    // 0 means the cache is never cleared
+    public static long dfaStateLimit = 0;
+
+    public static boolean twoStage = true;
+
+    // number of two-stage parses and how many of them needed the LL stage
+    public static final LongAdder sllParses = new LongAdder();
+    public static final LongAdder llFallbacks = new LongAdder();
+
+    private static final ThreadLocal<ParserPool> POOL = ThreadLocal.withInitial(ParserPool::new);
+
+    private static final ReadWriteLock DFA_LOCK = new ReentrantReadWriteLock();
+
+    // replaced by clearDfa, the parsers switch to it before their next parse
+    private static volatile PredictionContextCache contextCache = new PredictionContextCache();
+
+    // covers the constructs of the grammars in grammars-v4 that we are able to convert
+    private static final String WARMUP_GRAMMAR = """
+            parser grammar Warmup;
+            options { tokenVocab = WarmupLexer; }
+            import Common;
+            file : header? (decl | stmt)* EOF ;
+            header : 'module' qualifiedName ';' ;
+            decl : type=ID name=ID ('=' expr)? ';'        # varDecl
+                 | 'fun' ID '(' (param (',' param)*)? ')' block   # funDecl
+                 ;
+            param : ID ':' ID ;
+            stmt : block | 'if' '(' expr ')' stmt ('else' stmt)? | expr ';' | ~(';' | '{')+ ';' ;
+            block : '{' stmt* '}' ;
+            expr : expr ('*' | '/') expr | expr ('+' | '-') expr | '(' expr ')'
+                 | ID ('.' ID)* | INT | STRING | . ;
+            qualifiedName : ID ('.' ID)* ;
+            """;
+
+    // streams are stateful, so every thread has its own
+    private final CharStream empty = CharStreams.fromString("", "<empty>");
+    private final ANTLRv4Lexer lexer;
+    private final CommonTokenStream tokens;
+    private final ANTLRv4Parser parser;
+    private boolean fellBack = false;
+    // input whose tokens are already in the token stream, see lex
+    private CharStream lexed = null;
+    // context cache of the parser's simulator
+    private PredictionContextCache contexts = null;
+
+    private ParserPool() {
+        lexer = new ANTLRv4Lexer(empty);
+        tokens = new CommonTokenStream(lexer);
+        parser = new ANTLRv4Parser(tokens);
+    }
+
+    // a new simulator, the only way to give the parser another context cache
+    private void useCurrentContexts() {
+        PredictionContextCache current = contextCache;
+        if (contexts != current) {
+            parser.setInterpreter(new ParserATNSimulator(parser, parser.getATN(),
+                                                         parser.getInterpreter().decisionToDFA,
+                                                         current));
+            contexts = current;
+        }
+    }
+
+    /**
+     * Parses {@code input} with the parser of the current thread.
+     *
+     * @param listener parse listener for this parse only, may be null
+     */
+    public static ANTLRv4Parser.GrammarSpecContext parse(CharStream input,
+                                                         ParseTreeListener listener) {
+        return parse(input, true, listener);
+    }
+
+    /**
+     * Parses {@code input} with the parser of the current thread. If {@code buildTree} is false,
+     * rule contexts are not linked into a tree and only hold their own tokens, so the listeners
+     * have to collect everything they need while the parser exits the rules.
+     * <p>
+     * If the SLL stage fails the listeners see the grammar again from the start, a new
+     * {@code enterGrammarSpec} tells them to drop what they collected.
+     *
+     * @param listeners parse listeners for this parse only, null entries are ignored
+     */
+    public static ANTLRv4Parser.GrammarSpecContext parse(CharStream input, boolean buildTree,
+                                                         ParseTreeListener... listeners) {
+        return parse(input, null, buildTree, listeners);
+    }
+
+    /**
+     * Like {@link #parse(CharStream, boolean, ParseTreeListener...)}, but syntax errors of the
+     * lexer and of the LL stage go to {@code errors}, or to the console if it is null.
+     */
+    public static ANTLRv4Parser.GrammarSpecContext parse(CharStream input,
+                                                         ANTLRErrorListener errors,
+                                                         boolean buildTree,
+                                                         ParseTreeListener... listeners) {
+        ParserPool pool = POOL.get();
+        DFA_LOCK.readLock().lock();
+        try {
+            pool.useCurrentContexts();
+            if (pool.lexed != input) {
+                listen(pool.lexer, errors);
+                pool.lexer.setInputStream(input);
+                pool.tokens.setTokenSource(pool.lexer);
+            }
+            pool.lexed = null;
+            pool.parser.setTokenStream(pool.tokens);
+            pool.tokens.seek(0);
+            pool.parser.setBuildParseTree(buildTree);
+            for (ParseTreeListener listener : listeners) {
+                if (listener != null) {
+                    pool.parser.addParseListener(listener);
+                }
+            }
+            pool.fellBack = false;
+            if (!twoStage) {
+                listen(pool.parser, errors);
+                return pool.parser.grammarSpec();
+            }
+            sllParses.increment();
+            pool.parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            pool.parser.setErrorHandler(new BailErrorStrategy());
+            pool.parser.removeErrorListeners();
+            try {
+                return pool.parser.grammarSpec();
+            } catch (ParseCancellationException e) {
+                llFallbacks.increment();
+                pool.fellBack = true;
+                pool.parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                pool.parser.setErrorHandler(new DefaultErrorStrategy());
+                listen(pool.parser, errors);
+                // rewinds the tokens
+                pool.parser.reset();
+                return pool.parser.grammarSpec();
+            }
+        } finally {
+            pool.parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            pool.parser.setErrorHandler(new DefaultErrorStrategy());
+            listen(pool.parser, null);
+            pool.parser.removeParseListeners();
+            pool.parser.setBuildParseTree(true);
+            release(pool);
+            DFA_LOCK.readLock().unlock();
+            clearIfTooBig();
+        }
+    }
+
+    /**
+     * Lexes all of {@code input} with the lexer of the current thread. The tokens are kept until
+     * the next {@link #parse} of the same input or {@link #release()} on this thread.
+     *
+     * @param errors gets the syntax errors of the lexer, the console if null
+     * @return the tokens on all channels, ending with EOF
+     */
+    public static List<Token> lex(CharStream input, ANTLRErrorListener errors) {
+        ParserPool pool = POOL.get();
+        DFA_LOCK.readLock().lock();
+        try {
+            listen(pool.lexer, errors);
+            pool.lexer.setInputStream(input);
+            pool.tokens.setTokenSource(pool.lexer);
+            pool.tokens.fill();
+            pool.lexed = input;
+            return pool.tokens.getTokens();
+        } finally {
+            listen(pool.lexer, null);
+            DFA_LOCK.readLock().unlock();
+        }
+    }
+
+    private static void listen(Recognizer<?, ?> recognizer, ANTLRErrorListener errors) {
+        recognizer.removeErrorListeners();
+        recognizer.addErrorListener(errors == null ? ConsoleErrorListener.INSTANCE : errors);
+    }
+
+    /**
+     * Drops the tokens kept by {@link #lex} for a grammar that will not be parsed.
+     */
+    public static void release() {
+        release(POOL.get());
+    }
+
+    private static void release(ParserPool pool) {
+        listen(pool.lexer, null);
+        // do not keep the tokens of the last grammar alive, the parse tree keeps its own
+        pool.lexer.setInputStream(pool.empty);
+        pool.tokens.setTokenSource(pool.lexer);
+        pool.lexed = null;
+    }
+
+    /**
+     * @return the tokens of the grammar that is parsed on this thread.
+     */
+    public static TokenStream currentTokens() {
+        return POOL.get().tokens;
+    }
+
+    /**
+     * @return true if the last parse on this thread needed the LL stage.
+     */
+    public static boolean lastParseFellBack() {
+        return POOL.get().fellBack;
+    }
+
+    /**
+     * Fills the DFA cache by parsing a grammar that uses most of the ANTLR syntax.
+     */
+    public static void warmUp(int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            parse(CharStreams.fromString(WARMUP_GRAMMAR, "warmup"), null);
+        }
+    }
+
+    /**
+     * @return number of states in the DFA caches of the lexer and the parser.
+     */
+    public static long dfaStateCount() {
+        ParserPool pool = POOL.get();
+        return countStates(pool.lexer.getInterpreter().decisionToDFA) +
+                countStates(pool.parser.getInterpreter().decisionToDFA);
+    }
+
+    private static long countStates(DFA[] dfas) {
+        long count = 0;
+        for (DFA dfa : dfas) {
+            count += dfa.states.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of prediction contexts in the cache the parsers currently share.
+     */
+    public static long contextCount() {
+        return contextCache.size();
+    }
+
+    /**
+     * Clears the DFA caches of the lexer and the parser and replaces the prediction context
+     * cache, waiting for running parses to finish.
+     */
+    public static void clearDfa() {
+        ParserPool pool = POOL.get();
+        DFA_LOCK.writeLock().lock();
+        try {
+            pool.lexer.getInterpreter().clearDFA();
+            pool.parser.getInterpreter().clearDFA();
+            contextCache = new PredictionContextCache();
+        } finally {
+            DFA_LOCK.writeLock().unlock();
+        }
+    }
+
+    private static void clearIfTooBig() {
+        if (dfaStateLimit > 0 && dfaStateCount() + contextCount() > dfaStateLimit) {
+            Converter.logger.log(Level.INFO, "clearing the DFA and prediction context caches\n");
+            clearDfa();
+        }
+    }
+
+    public static String describe() {
+        ParserPool pool = POOL.get();
+        return "DFA states: lexer " + countStates(pool.lexer.getInterpreter().decisionToDFA) +
+                ", parser " + countStates(pool.parser.getInterpreter().decisionToDFA) +
+                ", prediction contexts: " + contextCount() +
+                (twoStage ? ", LL fallbacks: " + llFallbacks.sum() + " of " + sllParses.sum() : "");
+    }
+}
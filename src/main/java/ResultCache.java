@@ -0,0 +1,226 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Persistent manifest for incremental runs. For every grammar it stores the hash of its content,
+ * the converter version that produced the results and the {@link GrammarResult} itself. If
+ * neither changed, the stored result is reused and the grammar is not parsed, tagged or validated
+ * again.
+ * <p>
+ * Results also depend on the grammars a grammar imports and on its token vocabulary. Their hashes
+ * are stored too and compared on lookup.
+ * <p>
+ * The first line is {@link #HEADER}, then one line per grammar: {@code hash version outcome
+ * hadLR tagged valid tooBig different preScan llFallback syntaxErrors dependencies path},
+ * separated by tabs. {@code preScan} is the verdict or {@code -} if there was none. Dependencies
+ * are {@code file=hash} separated by {@code ;}, or {@code -} for none. A manifest with another
+ * first line is from an older converter and is ignored.
+ */
+public class ResultCache {
+
+    public static final String MANIFEST_NAME = ".manifest";
+
+    // the format of the lines, changed whenever a column is added
+    static final String HEADER = "# manifest 2";
+    private static final int COLUMNS = 13;
+
+    private final Path manifest;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private record Entry(String hash, String version, GrammarResult result, String dependencies) {
+    }
+
+    public ResultCache(Path manifest) {
+        this.manifest = manifest;
+    }
+
+    public static ResultCache load(Path manifest) throws IOException {
+        ResultCache cache = new ResultCache(manifest);
+        if (!Files.exists(manifest)) {
+            return cache;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                Converter.logger.log(Level.INFO, "Manifest of an older version, converting all " +
+                        "grammars again\n");
+                return cache;
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split("\t", COLUMNS);
+                if (cols.length != COLUMNS) {
+                    Converter.logger.log(Level.WARNING, "Bad manifest line: " + line);
+                    continue;
+                }
+                GrammarResult res = new GrammarResult(Paths.get(cols[12]));
+                res.outcome = GrammarResult.Outcome.valueOf(cols[2]);
+                res.hadLR = cols[3].equals("1");
+                res.tagged = cols[4].equals("1");
+                res.valid = cols[5].equals("1");
+                res.tooBig = cols[6].equals("1");
+                res.differentFromBruteforce = cols[7].equals("1");
+                res.preScan = cols[8].equals("-") ? null : GrammarPreScan.Verdict.valueOf(cols[8]);
+                res.llFallback = cols[9].equals("1");
+                res.diagnostics.restoreSyntaxErrors(Integer.parseInt(cols[10]));
+                cache.entries.put(cols[12], new Entry(cols[0], cols[1], res, cols[11]));
+            }
+        }
+        return cache;
+    }
+
+    public static String hash(Path file) throws IOException {
+        return hash(Files.readAllBytes(file));
+    }
+
+    public static String hash(byte[] content) {
+        return hash(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Hashes the remaining bytes of {@code content} without moving its position.
+     */
+    public static String hash(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the stored result if the grammar and the converter did not change since it was
+     * stored and its result files are still there, null otherwise.
+     */
+    public GrammarResult lookup(Path path, String hash) {
+        seen.add(path.toString());
+        Entry e = entries.get(path.toString());
+        if (e == null || !e.hash.equals(hash) || !e.version.equals(Converter.resultVersion()) ||
+                !dependenciesUnchanged(e.dependencies)) {
+            return null;
+        }
+        if (e.result.outcome == GrammarResult.Outcome.PROCESSED) {
+            for (File f : Converter.resultFiles(path.toFile())) {
+                if (!f.exists()) {
+                    return null;
+                }
+            }
+        }
+        return e.result;
+    }
+
+    public void store(Path path, String hash, GrammarResult result) {
+        seen.add(path.toString());
+        String dependencies = dependencies(result);
+        if (result.outcome == GrammarResult.Outcome.IO_ERROR ||
+                result.outcome == GrammarResult.Outcome.BUDGET_EXCEEDED || dependencies == null) {
+            // might be gone next time
+            entries.remove(path.toString());
+            return;
+        }
+        entries.put(path.toString(),
+                    new Entry(hash, Converter.resultVersion(), result, dependencies));
+    }
+
+    // null if a dependency cannot be read
+    static String dependencies(GrammarResult result) {
+        if (result.dependencies.isEmpty()) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String dep : result.dependencies) {
+            try {
+                sb.append(sb.length() == 0 ? "" : ";").append(dep).append('=')
+                  .append(hash(Paths.get(dep)));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    static boolean dependenciesUnchanged(String dependencies) {
+        if (dependencies.equals("-")) {
+            return true;
+        }
+        for (String dep : dependencies.split(";")) {
+            int eq = dep.lastIndexOf('=');
+            try {
+                if (eq < 0 ||
+                        !hash(Paths.get(dep.substring(0, eq))).equals(dep.substring(eq + 1))) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the grammars that were not looked up in this run. The results are only deleted if
+     * the grammar is gone, otherwise it belongs to another shard now.
+     */
+    public void prune() {
+        for (var it = entries.keySet().iterator(); it.hasNext(); ) {
+            String path = it.next();
+            if (!seen.contains(path)) {
+                if (!new File(path).exists()) {
+                    Converter.deleteResults(new File(path));
+                    IrCodec.file(new File(path)).delete();
+                }
+                it.remove();
+            }
+        }
+    }
+
+    public void save() throws IOException {
+        Path tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(
+                Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+            writer.println(HEADER);
+            for (var e : new TreeMap<>(entries).entrySet()) {
+                GrammarResult res = e.getValue().result;
+                if (res.outcome == GrammarResult.Outcome.IO_ERROR) {
+                    // stored before the writer failed on its files
+                    continue;
+                }
+                writer.println(e.getValue().hash + "\t" + e.getValue().version + "\t" +
+                                       res.outcome + "\t" + flag(res.hadLR) + "\t" +
+                                       flag(res.tagged) + "\t" + flag(res.valid) + "\t" +
+                                       flag(res.tooBig) + "\t" +
+                                       flag(res.differentFromBruteforce) + "\t" +
+                                       (res.preScan == null ? "-" : res.preScan) + "\t" +
+                                       flag(res.llFallback) + "\t" +
+                                       res.diagnostics.syntaxErrors() + "\t" +
+                                       e.getValue().dependencies + "\t" + e.getKey());
+            }
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String flag(boolean b) {
+        return b ? "1" : "0";
+    }
+}
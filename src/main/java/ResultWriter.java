@@ -0,0 +1,204 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Writes the result files. In asynchronous mode the files are handed over through a bounded
+ * queue to a single writer thread that drains it in batches, so tagging does not wait for the
+ * filesystem unless the queue is full. In synchronous mode the files are written by the caller.
+ * <p>
+ * A file that cannot be written sets {@link GrammarResult#writeFailed} of its owner. If the
+ * writer thread dies, the files are written by the callers of {@link #submit} and
+ * {@link #close()} instead.
+ */
+public class ResultWriter implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // how long to wait for room in the queue before checking that the thread is still alive
+    private static final long OFFER_MILLIS = 100;
+
+    /**
+     * One file to write. It must not exist yet. The time spent writing it is added to
+     * {@code owner}, if there is one.
+     */
+    public record Job(File file, String content, GrammarResult owner) {
+    }
+
+    private static final Job POISON = new Job(null, null, null);
+
+    private final BlockingQueue<Job> queue;
+    private final Thread thread;
+    // jobs the thread took but did not write before it died, read after it ended
+    private final List<Job> leftover = new ArrayList<>();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong filesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private ResultWriter(int capacity) {
+        if (capacity <= 0) {
+            queue = null;
+            thread = null;
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(this::run, "result-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static ResultWriter sync() {
+        return new ResultWriter(0);
+    }
+
+    public static ResultWriter async(int capacity) {
+        return new ResultWriter(capacity);
+    }
+
+    public boolean isAsync() {
+        return queue != null;
+    }
+
+    /**
+     * Writes {@code file} now or queues it, blocking while the queue is full.
+     */
+    public void submit(File file, String content, GrammarResult owner) {
+        Job job = new Job(file, content, owner);
+        if (queue == null || !enqueue(job)) {
+            write(job);
+            return;
+        }
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    // false if the job was not queued because the thread is gone or we were interrupted
+    private boolean enqueue(Job job) {
+        try {
+            while (!queue.offer(job, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void run() {
+        List<Job> batch = new ArrayList<>(BATCH_SIZE);
+        int done = 0;
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (done = 0; done < batch.size(); done++) {
+                    if (batch.get(done) == POISON) {
+                        return;
+                    }
+                    write(batch.get(done));
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            // the file that threw counts as failed, close() writes the rest of the batch
+            Converter.logger.log(Level.SEVERE, "Result writer stopped", e);
+            fail(batch.get(done));
+            leftover.addAll(batch.subList(done + 1, batch.size()));
+        }
+    }
+
+    private void write(Job job) {
+        long start = System.nanoTime();
+        File dir = job.file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        // CREATE_NEW does the check that the file does not exist yet
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(job.file.toPath(), StandardOpenOption.CREATE_NEW),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(job.content);
+            filesWritten.incrementAndGet();
+            // the results are ASCII apart from the odd literal, chars are close enough to bytes
+            bytesWritten.addAndGet(job.content.length());
+        } catch (IOException e) {
+            fail(job);
+            Converter.logger.log(Level.WARNING, "Could not write " + job.file.getAbsolutePath() +
+                    ": " + e + "\n");
+        }
+        long nanos = System.nanoTime() - start;
+        writeNanos.addAndGet(nanos);
+        if (job.owner != null) {
+            job.owner.diskWriteNanos += nanos;
+        }
+    }
+
+    private void fail(Job job) {
+        failed.incrementAndGet();
+        if (job.owner != null) {
+            job.owner.writeFailed = true;
+        }
+    }
+
+    /**
+     * Waits until all queued files are written and stops the writer thread. Files the thread
+     * did not get to because it died are written here.
+     */
+    @Override
+    public void close() {
+        if (thread == null) {
+            return;
+        }
+        try {
+            if (enqueue(POISON)) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            return;
+        }
+        List<Job> rest = new ArrayList<>(leftover);
+        leftover.clear();
+        queue.drainTo(rest);
+        for (Job job : rest) {
+            if (job != POISON) {
+                write(job);
+            }
+        }
+    }
+
+    public void printStats(PrintStream out) {
+        double seconds = writeNanos.get() / 1e9;
+        double mb = bytesWritten.get() / (1024.0 * 1024.0);
+        out.printf("Written files: %d (%.2f MB, %.2f MB/s), failed: %d, max queue depth: %d%n",
+                   filesWritten.get(), mb, seconds > 0 ? mb / seconds : 0.0, failed.get(),
+                   maxQueueDepth.get());
+    }
+}
@@ -0,0 +1,306 @@
+import grammar.EbnfSuffix;
+import grammar.Exceptions.ActionException;
+import grammar.GrammarBuilder;
+import grammar.Node;
+import grammar.NonTerminal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * Streaming counterpart of {@link MyVisitor}. It is added as a parse listener to a parser that
+ * does not build a parse tree and builds the same rules while the parser exits the rules of the
+ * grammar, so no tree of the whole grammar is ever kept in memory.
+ * <p>
+ * Without a tree a context only holds its own tokens, not its sub rules. The results of the sub
+ * rules are kept in the fields and stacks below until the enclosing rule exits.
+ */
+public class RuleCollector extends ANTLRv4ParserBaseListener {
+
+    private final Diagnostics diagnostics;
+
+    // warnings of this parse, passed on at its end so an SLL parse that failed adds none
+    private final List<String> warnings = new ArrayList<>();
+
+    private GrammarBuilder builder;
+
+    // rule of the current parser rule
+    private NonTerminal rule = null;
+
+    // alternatives of the rule and the blocks in it, innermost block first
+    private final Deque<List<ArrayList<Pair<Node, EbnfSuffix>>>> targets = new ArrayDeque<>();
+
+    private final Deque<ArrayList<Pair<Node, EbnfSuffix>>> alternatives = new ArrayDeque<>();
+
+    // result of the last atom or block and of the suffix after it
+    private Node element = null;
+    private EbnfSuffix suffix = EbnfSuffix.NONE;
+    private String action = null;
+
+    private boolean inParserRule = false;
+    private boolean duplicateRule = false;
+    private boolean failed = false;
+
+    private boolean argAction = false;
+    private boolean terminalOptions = false;
+
+    /**
+     * @param diagnostics gets the warnings about the grammar
+     */
+    public RuleCollector(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        reset();
+    }
+
+    private void reset() {
+        builder = new GrammarBuilder();
+        warnings.clear();
+        rule = null;
+        targets.clear();
+        alternatives.clear();
+        element = null;
+        suffix = EbnfSuffix.NONE;
+        action = null;
+        inParserRule = false;
+        duplicateRule = false;
+        failed = false;
+        argAction = false;
+        terminalOptions = false;
+    }
+
+    private boolean active() {
+        return inParserRule && !duplicateRule && !failed;
+    }
+
+    public NonTerminal getStart() {
+        return builder.getStart();
+    }
+
+    public GrammarBuilder getBuilder() {
+        return builder;
+    }
+
+    @Override
+    public void enterGrammarSpec(ANTLRv4Parser.GrammarSpecContext ctx) {
+        // the grammar is parsed again after a failed SLL parse
+        reset();
+    }
+
+    @Override
+    public void exitGrammarSpec(ANTLRv4Parser.GrammarSpecContext ctx) {
+        warnings.forEach(diagnostics::warn);
+        warnings.clear();
+    }
+
+    @Override
+    public void exitDelegateGrammar(ANTLRv4Parser.DelegateGrammarContext ctx) {
+        builder.addImport(ctx.getStop().getText());
+    }
+
+    @Override
+    public void exitOption(ANTLRv4Parser.OptionContext ctx) {
+        // option : identifier ASSIGN optionValue
+        if (ctx.getStart().getText().equals("tokenVocab")) {
+            builder.setTokenVocab(ctx.getStop().getText());
+        }
+    }
+
+    @Override
+    public void exitLexerRuleSpec(ANTLRv4Parser.LexerRuleSpecContext ctx) {
+        // only rules like LPAREN : '(' ;
+        int[] shape = {ANTLRv4Parser.TOKEN_REF, ANTLRv4Parser.COLON, ANTLRv4Parser.STRING_LITERAL,
+                ANTLRv4Parser.SEMI};
+        TokenStream tokens = ParserPool.currentTokens();
+        int n = 0;
+        String literal = null;
+        for (int i = ctx.getStart().getTokenIndex(); i <= ctx.getStop().getTokenIndex(); i++) {
+            Token t = tokens.get(i);
+            if (t.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            if (n >= shape.length || t.getType() != shape[n++]) {
+                return;
+            }
+            if (t.getType() == ANTLRv4Parser.STRING_LITERAL) {
+                literal = t.getText();
+            }
+        }
+        if (n == shape.length) {
+            builder.addLiteral(literal, ctx.getStart().getText());
+        }
+    }
+
+    @Override
+    public void enterParserRuleSpec(ANTLRv4Parser.ParserRuleSpecContext ctx) {
+        inParserRule = true;
+    }
+
+    @Override
+    public void exitParserRuleSpec(ANTLRv4Parser.ParserRuleSpecContext ctx) {
+        inParserRule = false;
+        duplicateRule = false;
+    }
+
+    @Override
+    public void enterRuleBlock(ANTLRv4Parser.RuleBlockContext ctx) {
+        if (!inParserRule || failed) {
+            return;
+        }
+        var name = ((ANTLRv4Parser.ParserRuleSpecContext) ctx.getParent()).RULE_REF();
+        rule = name == null ? null : builder.defineRule(name.getText());
+        if (rule != null) {
+            targets.push(new ArrayList<>());
+        } else {
+            warnings.add("Duplicate rule " + (name == null ? "" : name.getText()));
+            duplicateRule = true;
+        }
+    }
+
+    @Override
+    public void exitRuleBlock(ANTLRv4Parser.RuleBlockContext ctx) {
+        var alts = active() ? targets.poll() : null;
+        if (alts != null && rule != null) {
+            for (var alt : alts) {
+                rule.addRule(alt);
+            }
+        }
+    }
+
+    @Override
+    public void enterAlternative(ANTLRv4Parser.AlternativeContext ctx) {
+        if (active()) {
+            alternatives.push(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void exitAlternative(ANTLRv4Parser.AlternativeContext ctx) {
+        if (!active()) {
+            return;
+        }
+        var alt = alternatives.poll();
+        if (alt != null && targets.peek() != null) {
+            targets.peek().add(alt);
+        }
+    }
+
+    @Override
+    public void exitElement(ANTLRv4Parser.ElementContext ctx) {
+        if (!active()) {
+            return;
+        }
+        if (action != null) {
+            failed = true;
+            throw new ActionException("ACTION BLOCK\t" + action + "\n In " + text(ctx));
+        }
+        if (element != null && alternatives.peek() != null) {
+            alternatives.peek().add(new Pair<>(element, suffix));
+        }
+        element = null;
+        suffix = EbnfSuffix.NONE;
+    }
+
+    @Override
+    public void exitActionBlock(ANTLRv4Parser.ActionBlockContext ctx) {
+        if (active() && ctx.getParent() instanceof ANTLRv4Parser.ElementContext) {
+            action = text(ctx);
+        }
+    }
+
+    @Override
+    public void exitAtom(ANTLRv4Parser.AtomContext ctx) {
+        if (!active()) {
+            return;
+        }
+        int type = ctx.getStart().getType();
+        if (type == ANTLRv4Parser.NOT || type == ANTLRv4Parser.DOT) {
+            element = builder.nonTerminal(text(ctx));
+        }
+    }
+
+    @Override
+    public void enterArgActionBlock(ANTLRv4Parser.ArgActionBlockContext ctx) {
+        argAction = ctx.getParent() instanceof ANTLRv4Parser.RulerefContext;
+    }
+
+    @Override
+    public void exitRuleref(ANTLRv4Parser.RulerefContext ctx) {
+        boolean warn = argAction;
+        argAction = false;
+        if (!active()) {
+            return;
+        }
+        if (warn) {
+            warnings.add(text(ctx) + " has an argActionBlock or elementOptions");
+        }
+        element = builder.nonTerminal(ctx.RULE_REF().getText());
+    }
+
+    @Override
+    public void enterElementOptions(ANTLRv4Parser.ElementOptionsContext ctx) {
+        terminalOptions = ctx.getParent() instanceof ANTLRv4Parser.TerminalDefContext;
+    }
+
+    @Override
+    public void exitTerminalDef(ANTLRv4Parser.TerminalDefContext ctx) {
+        boolean warn = terminalOptions;
+        terminalOptions = false;
+        if (!active()) {
+            return;
+        }
+        if (warn) {
+            warnings.add("TerminalDef " + text(ctx) + " has elementOptions");
+        }
+        element = builder.terminal(ctx.getStart().getText());
+    }
+
+    @Override
+    public void exitEbnfSuffix(ANTLRv4Parser.EbnfSuffixContext ctx) {
+        if (!active()) {
+            return;
+        }
+        switch (ctx.getStart().getText()) {
+            case "?" -> suffix = EbnfSuffix.QUESTION;
+            case "*" -> suffix = EbnfSuffix.STAR;
+            case "+" -> suffix = EbnfSuffix.PLUS;
+        }
+    }
+
+    @Override
+    public void enterBlock(ANTLRv4Parser.BlockContext ctx) {
+        if (active()) {
+            targets.push(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void exitBlock(ANTLRv4Parser.BlockContext ctx) {
+        var alts = active() ? targets.poll() : null;
+        if (alts != null) {
+            element = builder.block(alts);
+        }
+    }
+
+    /**
+     * @return text of the tokens of {@code ctx} on the default channel.
+     */
+    private static String text(ParserRuleContext ctx) {
+        TokenStream tokens = ParserPool.currentTokens();
+        if (ctx.getStart() == null || ctx.getStop() == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = ctx.getStart().getTokenIndex(); i <= ctx.getStop().getTokenIndex(); i++) {
+            Token t = tokens.get(i);
+            if (t.getChannel() == Token.DEFAULT_CHANNEL && t.getType() != Token.EOF) {
+                sb.append(t.getText());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+import grammar.Phase;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Machine-readable report of a run with one record per grammar: the outcome, the time spent in
+ * every {@link Phase} in nanoseconds, the size of the grammar and its {@link Diagnostics}. The
+ * memory of the rules is a static estimate, see {@link grammar.CompactGrammar}. Written as CSV if
+ * the file name ends with {@code .csv} and as JSON lines otherwise.
+ */
+public class RunReport {
+
+    private static final String[] SIZE_COLUMNS = {"nonTerminals", "terminals", "alternatives",
+            "symbols", "finalNonTerminals", "call", "ret", "pairs", "imports",
+            "aliasedTerminals", "syntaxErrors", "warnings", "estimatedNodeIrBytes",
+            "estimatedCompactIrBytes"};
+
+    public static void write(Path file, List<GrammarResult> results) throws IOException {
+        boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (csv) {
+                out.println(csvHeader());
+            }
+            for (GrammarResult res : results) {
+                out.println(csv ? toCsv(res) : toJson(res));
+            }
+        }
+    }
+
+    private static String[] nanoColumns() {
+        Phase[] phases = Phase.values();
+        String[] res = new String[phases.length + 1];
+        for (Phase phase : phases) {
+            res[phase.ordinal()] = camelCase(phase.name()) + "Nanos";
+        }
+        res[phases.length] = "diskWriteNanos";
+        return res;
+    }
+
+    // IR_BUILD -> irBuild
+    private static String camelCase(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : name.toLowerCase(Locale.ROOT).split("_")) {
+            sb.append(sb.length() == 0 ? part :
+                              Character.toUpperCase(part.charAt(0)) + part.substring(1));
+        }
+        return sb.toString();
+    }
+
+    private static long[] nanos(GrammarResult res) {
+        long[] nanos = new long[res.phaseNanos.length + 1];
+        System.arraycopy(res.phaseNanos, 0, nanos, 0, res.phaseNanos.length);
+        nanos[res.phaseNanos.length] = res.diskWriteNanos;
+        return nanos;
+    }
+
+    private static long[] sizes(GrammarResult res) {
+        return new long[] {res.nonTerminals, res.terminals, res.alternatives, res.symbols,
+                res.finalNonTerminals, res.callCount, res.retCount, res.pairCount, res.imports,
+                res.aliasedTerminals, res.diagnostics.syntaxErrors(), res.diagnostics.warnings(),
+                res.estimatedNodeIrBytes, res.estimatedCompactIrBytes};
+    }
+
+    static String csvHeader() {
+        StringBuilder sb = new StringBuilder("path,outcome,budgetPhase,cached,irCached,preScan," +
+                                                     "llFallback,hadLR,tagged,valid,tooBig");
+        for (String col : nanoColumns()) {
+            sb.append(',').append(col);
+        }
+        for (String col : SIZE_COLUMNS) {
+            sb.append(',').append(col);
+        }
+        return sb.append(",diagnostics").toString();
+    }
+
+    static String toCsv(GrammarResult res) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('"').append(res.path.replace("\"", "\"\"")).append('"')
+          .append(',').append(res.outcome)
+          .append(',').append(res.budgetPhase == null ? "" : res.budgetPhase)
+          .append(',').append(res.cached)
+          .append(',').append(res.irCached)
+          .append(',').append(res.preScan == null ? "" : res.preScan)
+          .append(',').append(res.llFallback)
+          .append(',').append(res.hadLR)
+          .append(',').append(res.tagged)
+          .append(',').append(res.valid)
+          .append(',').append(res.tooBig);
+        for (long n : nanos(res)) {
+            sb.append(',').append(n);
+        }
+        for (long n : sizes(res)) {
+            sb.append(',').append(n);
+        }
+        String diagnostics = String.join(" | ", res.diagnostics.messages());
+        sb.append(",\"").append(diagnostics.replace("\"", "\"\"").replace('\n', ' ')).append('"');
+        return sb.toString();
+    }
+
+    static String toJson(GrammarResult res) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"path\":\"").append(escape(res.path)).append('"')
+          .append(",\"outcome\":\"").append(res.outcome).append('"')
+          .append(",\"budgetPhase\":")
+          .append(res.budgetPhase == null ? "null" : "\"" + res.budgetPhase + "\"")
+          .append(",\"cached\":").append(res.cached)
+          .append(",\"irCached\":").append(res.irCached)
+          .append(",\"preScan\":")
+          .append(res.preScan == null ? "null" : "\"" + res.preScan + "\"")
+          .append(",\"llFallback\":").append(res.llFallback)
+          .append(",\"hadLR\":").append(res.hadLR)
+          .append(",\"tagged\":").append(res.tagged)
+          .append(",\"valid\":").append(res.valid)
+          .append(",\"tooBig\":").append(res.tooBig);
+        String[] nanoCols = nanoColumns();
+        long[] nanos = nanos(res);
+        for (int i = 0; i < nanos.length; i++) {
+            sb.append(",\"").append(nanoCols[i]).append("\":").append(nanos[i]);
+        }
+        long[] sizes = sizes(res);
+        for (int i = 0; i < sizes.length; i++) {
+            sb.append(",\"").append(SIZE_COLUMNS[i]).append("\":").append(sizes[i]);
+        }
+        sb.append(",\"diagnostics\":[");
+        List<String> messages = res.diagnostics.messages();
+        for (int i = 0; i < messages.size(); i++) {
+            sb.append(i == 0 ? "\"" : ",\"").append(escape(messages.get(i))).append('"');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
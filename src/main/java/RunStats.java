@@ -0,0 +1,211 @@
+import grammar.Phase;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Thread-safe aggregate of the statistics of a conversion run. Workers only call
+ * {@link #record(GrammarResult)}, all counters are derived from the recorded results, so a
+ * parallel run prints the same summary as a sequential one.
+ */
+public class RunStats {
+
+    public final AtomicInteger fileCounter = new AtomicInteger();
+    public final AtomicInteger skipped = new AtomicInteger();
+    public final AtomicInteger processedFiles = new AtomicInteger();
+    public final AtomicInteger lrCount = new AtomicInteger();
+    public final AtomicInteger taggedGrammars = new AtomicInteger();
+    public final AtomicInteger lrInVPGsCount = new AtomicInteger();
+    public final AtomicInteger validGrammars = new AtomicInteger();
+    public final AtomicInteger validTagged = new AtomicInteger();
+    public final AtomicInteger validLR = new AtomicInteger();
+    public final AtomicInteger grammarTooBig = new AtomicInteger();
+    public final AtomicInteger diffWithBruteforce = new AtomicInteger();
+    public final AtomicInteger llFallbacks = new AtomicInteger();
+    // grammars skipped by the token pre-scan without being parsed
+    public final AtomicInteger preScanRejected = new AtomicInteger();
+    public final AtomicInteger syntaxErrorGrammars = new AtomicInteger();
+    // indexed by the ordinal of the phase that ran out of budget
+    public final AtomicIntegerArray budgetExceeded = new AtomicIntegerArray(Phase.values().length);
+
+    private final ConcurrentLinkedQueue<GrammarResult> results = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<String> grammarsWithLR = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> differentGrammars = new ConcurrentLinkedQueue<>();
+
+    public void record(GrammarResult res) {
+        results.add(res);
+        fileCounter.incrementAndGet();
+        if (res.llFallback) {
+            llFallbacks.incrementAndGet();
+        }
+        if (res.preScan != null && res.preScan != GrammarPreScan.Verdict.CONVERT) {
+            preScanRejected.incrementAndGet();
+        }
+        if (res.diagnostics.syntaxErrors() > 0) {
+            syntaxErrorGrammars.incrementAndGet();
+        }
+        if (res.isSkipped()) {
+            skipped.incrementAndGet();
+            if (res.outcome == GrammarResult.Outcome.BUDGET_EXCEEDED) {
+                budgetExceeded.incrementAndGet(res.budgetPhase.ordinal());
+            }
+            return;
+        }
+        processedFiles.incrementAndGet();
+        if (res.hadLR) {
+            lrCount.incrementAndGet();
+            grammarsWithLR.add(res.name);
+        }
+        if (res.tagged) {
+            taggedGrammars.incrementAndGet();
+            if (res.hadLR) {
+                lrInVPGsCount.incrementAndGet();
+            }
+            if (res.valid) {
+                validTagged.incrementAndGet();
+                if (res.hadLR) {
+                    validLR.incrementAndGet();
+                }
+            }
+        }
+        if (res.valid) {
+            validGrammars.incrementAndGet();
+        }
+        if (res.tooBig) {
+            grammarTooBig.incrementAndGet();
+        }
+        if (res.differentFromBruteforce) {
+            diffWithBruteforce.incrementAndGet();
+            differentGrammars.add(res.name);
+        }
+    }
+
+    /**
+     * @return names of the grammars that had left recursion, sorted so that the list does not
+     * depend on the order in which workers finished.
+     */
+    public List<String> getGrammarsWithLR() {
+        return sorted(grammarsWithLR);
+    }
+
+    /**
+     * @return all recorded results, sorted by path.
+     */
+    public List<GrammarResult> getResults() {
+        List<GrammarResult> res = new ArrayList<>(results);
+        res.sort(Comparator.comparing(r -> r.path));
+        return res;
+    }
+
+    public List<String> getDifferentGrammars() {
+        return sorted(differentGrammars);
+    }
+
+    private static List<String> sorted(ConcurrentLinkedQueue<String> names) {
+        List<String> res = new ArrayList<>(names);
+        Collections.sort(res);
+        return res;
+    }
+
+    // counters by their name in partial summaries
+    private Map<String, AtomicInteger> counters() {
+        Map<String, AtomicInteger> res = new LinkedHashMap<>();
+        res.put("files", fileCounter);
+        res.put("skipped", skipped);
+        res.put("processed", processedFiles);
+        res.put("lr", lrCount);
+        res.put("tagged", taggedGrammars);
+        res.put("taggedLR", lrInVPGsCount);
+        res.put("valid", validGrammars);
+        res.put("validTagged", validTagged);
+        res.put("validLR", validLR);
+        res.put("tooBig", grammarTooBig);
+        res.put("diffWithBruteforce", diffWithBruteforce);
+        res.put("llFallbacks", llFallbacks);
+        res.put("preScanRejected", preScanRejected);
+        res.put("syntaxErrors", syntaxErrorGrammars);
+        return res;
+    }
+
+    /**
+     * Writes the counters and grammar lists, so that the summaries of several shards can be
+     * merged with {@link #mergeSummary(Path)}. One {@code key=value} per line.
+     */
+    public void writeSummary(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(
+                Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            counters().forEach((k, v) -> out.println(k + "=" + v.get()));
+            for (Phase phase : Phase.values()) {
+                out.println("budget." + phase + "=" + budgetExceeded.get(phase.ordinal()));
+            }
+            getGrammarsWithLR().forEach(name -> out.println("lrGrammar=" + name));
+            getDifferentGrammars().forEach(name -> out.println("differentGrammar=" + name));
+        }
+    }
+
+    /**
+     * Adds the counters and grammar lists of a summary written by {@link #writeSummary(Path)}.
+     */
+    public void mergeSummary(Path file) throws IOException {
+        Map<String, AtomicInteger> counters = counters();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String key = line.substring(0, eq);
+                String value = line.substring(eq + 1);
+                if (counters.containsKey(key)) {
+                    counters.get(key).addAndGet(Integer.parseInt(value));
+                } else if (key.startsWith("budget.")) {
+                    budgetExceeded.addAndGet(Phase.valueOf(key.substring(7)).ordinal(),
+                                             Integer.parseInt(value));
+                } else if (key.equals("lrGrammar")) {
+                    grammarsWithLR.add(value);
+                } else if (key.equals("differentGrammar")) {
+                    differentGrammars.add(value);
+                } else {
+                    throw new IOException("Unknown key " + key + " in " + file);
+                }
+            }
+        }
+    }
+
+    public void printSummary(PrintStream out) {
+        out.println("Total number of .g4 files: " + fileCounter.get());
+        out.println("Skipped files: " + skipped.get());
+        out.println("Processed files: " + processedFiles.get());
+        out.println("Grammars with LR: " + lrCount.get());
+        out.println("Tagged grammars: " + taggedGrammars.get());
+        out.println("Tagged grammars with LR: " + lrInVPGsCount.get());
+        out.println("Valid grammars: " + validGrammars.get());
+        out.println("Valid tagged: " + validTagged.get());
+        out.println("ValidLr " + validLR.get());
+        out.println("skipped cause too big: " + grammarTooBig.get());
+        out.println("Parsed again with LL: " + llFallbacks.get());
+        out.println("Skipped before parsing: " + preScanRejected.get());
+        out.println("Grammars with syntax errors: " + syntaxErrorGrammars.get());
+        for (Phase phase : Phase.values()) {
+            if (budgetExceeded.get(phase.ordinal()) > 0) {
+                out.println("budget exceeded in phase " + phase + ": " +
+                                    budgetExceeded.get(phase.ordinal()));
+            }
+        }
+    }
+}
@@ -2,8 +2,8 @@ import grammar.EbnfSuffix;
 import grammar.Node;
 import grammar.NonTerminal;
 import grammar.Terminal;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 import org.antlr.v4.runtime.misc.Pair;
@@ -59,7 +59,7 @@ public class WellMatchedTagging {
      * @param j    end, not included
      * @return true if there's a nonterminal between i and j, false otherwise.
      */
-    static boolean findNonTerm(ArrayList<Pair<Node, EbnfSuffix>> rule, int i, int j) {
+    static boolean findNonTerm(List<Pair<Node, EbnfSuffix>> rule, int i, int j) {
         for (int k = i + 1; k < j; k++) {
             if (rule.get(k).a instanceof NonTerminal) {
                 return true;
@@ -0,0 +1,93 @@
+package grammar;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * One alternative of a rule, the symbols with their suffixes. It cannot be changed, so it is safe
+ * as an element of {@link NonTerminal#rules}, and its hash is computed once. Passes that rewrite
+ * an alternative create a new one and put it into a new set of rules.
+ * <p>
+ * It is equal to any list with the same elements and has the same hash code.
+ */
+public final class Alternative extends AbstractList<Pair<Node, EbnfSuffix>>
+        implements RandomAccess {
+
+    public static final Alternative EMPTY = new Alternative(newArray(0));
+
+    private final Pair<Node, EbnfSuffix>[] elements;
+
+    private final int hash;
+
+    // the array is not copied, it must not be changed afterwards
+    Alternative(Pair<Node, EbnfSuffix>[] elements) {
+        this.elements = elements;
+        int h = 1;
+        for (var e : elements) {
+            h = 31 * h + (e == null ? 0 : e.hashCode());
+        }
+        this.hash = h;
+    }
+
+    /**
+     * @return {@code elements} itself if it is an alternative already, otherwise a copy.
+     */
+    public static Alternative of(List<Pair<Node, EbnfSuffix>> elements) {
+        if (elements instanceof Alternative alt) {
+            return alt;
+        }
+        return elements.isEmpty() ? EMPTY : new Alternative(elements.toArray(newArray(0)));
+    }
+
+    @SafeVarargs
+    public static Alternative of(Pair<Node, EbnfSuffix>... elements) {
+        var copy = newArray(elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            copy[i] = elements[i];
+        }
+        return new Alternative(copy);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Pair<Node, EbnfSuffix>[] newArray(int length) {
+        return (Pair<Node, EbnfSuffix>[]) new Pair[length];
+    }
+
+    /**
+     * @return a new alternative with {@code element} added at the end.
+     */
+    public Alternative append(Pair<Node, EbnfSuffix> element) {
+        var res = Arrays.copyOf(elements, elements.length + 1);
+        res[elements.length] = element;
+        return new Alternative(res);
+    }
+
+    @Override
+    public Pair<Node, EbnfSuffix> get(int index) {
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof Alternative other) {
+            return hash == other.hash && Arrays.equals(elements, other.elements);
+        }
+        return super.equals(o);
+    }
+}
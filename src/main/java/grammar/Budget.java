@@ -0,0 +1,92 @@
+package grammar;
+
+import grammar.Exceptions.BudgetExceededException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Wall-clock and allocation budget of converting one grammar. The conversion phases call
+ * {@link #checkpoint()} in their loops and stop with a {@link BudgetExceededException} once the
+ * budget is used up or the thread was interrupted, e.g. by the shutdown of the server's workers.
+ * <p>
+ * A budget must only be checked on the thread that started it, allocations are counted for that
+ * thread only. {@link #UNLIMITED} is shared by all threads, so it does not check or count
+ * anything, not even interruption.
+ */
+public class Budget {
+
+    public static final Budget UNLIMITED = new Budget(0, 0);
+
+    // only every CHECK_EVERY-th checkpoint reads the clock and the allocation counter
+    private static final int CHECK_EVERY = 1024;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long deadline;
+    private final long maxAllocated;
+    private final long startAllocated;
+
+    private Phase phase = Phase.PARSE;
+    private int ticks = 0;
+
+    private Budget(long timeMillis, long allocBytes) {
+        this.deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1_000_000 : 0;
+        this.startAllocated = allocBytes > 0 ? allocatedBytes() : -1;
+        this.maxAllocated = startAllocated >= 0 ? allocBytes : 0;
+    }
+
+    /**
+     * @param timeMillis wall-clock budget, 0 for none
+     * @param allocBytes allocation budget of the current thread, 0 for none
+     */
+    public static Budget start(long timeMillis, long allocBytes) {
+        return new Budget(timeMillis, allocBytes);
+    }
+
+    public boolean isLimited() {
+        return deadline != 0 || maxAllocated != 0;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Marks the start of {@code next} and checks the budget.
+     */
+    public void enter(Phase next) {
+        if (this == UNLIMITED) {
+            return;
+        }
+        phase = next;
+        ticks = 0;
+        check();
+    }
+
+    public void checkpoint() {
+        if (this != UNLIMITED && ++ticks % CHECK_EVERY == 0) {
+            check();
+        }
+    }
+
+    private void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new BudgetExceededException(phase, "interrupted");
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException(phase, "out of time");
+        }
+        if (maxAllocated != 0 && allocatedBytes() - startAllocated > maxAllocated) {
+            throw new BudgetExceededException(phase, "allocated too much memory");
+        }
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads &&
+                threads.isThreadAllocatedMemorySupported() &&
+                threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,322 @@
+package grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * Read-only form of the rules reachable from a start rule with int ids instead of objects.
+ * Terminals have the ids {@code 0..terminalCount()-1} and nonterminals the ids after them, the
+ * start rule is the first nonterminal. Elements are coded as {@code id << 2 | suffix ordinal}.
+ * <p>
+ * The rules are stored in three arrays: the alternatives of nonterminal {@code n} are
+ * {@code ruleStart[n] .. ruleStart[n+1]-1}, and the elements of alternative {@code a} are
+ * {@code elements[altStart[a] .. altStart[a+1]-1]}. A grammar therefore costs four bytes per
+ * element and per alternative, where the {@link Node} form has a {@link Pair} per element and an
+ * {@link Alternative} and a hash set entry per alternative.
+ * <p>
+ * {@link #of} and {@link #toNodes} convert from and to the {@link Node} form, which the passes
+ * of {@link Grammar} still change in place.
+ */
+public class CompactGrammar {
+
+    private static final EbnfSuffix[] SUFFIXES = EbnfSuffix.values();
+
+    // bytes of an object header and of a reference with compressed oops
+    private static final int HEADER = 12;
+    private static final int REF = 4;
+
+    private final String[] names;
+    private final int terminalCount;
+    private final int[] ruleStart;
+    private final int[] altStart;
+    private final int[] elements;
+
+    private CompactGrammar(String[] names, int terminalCount, int[] ruleStart, int[] altStart,
+                           int[] elements) {
+        this.names = names;
+        this.terminalCount = terminalCount;
+        this.ruleStart = ruleStart;
+        this.altStart = altStart;
+        this.elements = elements;
+    }
+
+    /**
+     * @return the rules reachable from {@code start}, nonterminals numbered in the order they are
+     * first reached.
+     */
+    public static CompactGrammar of(NonTerminal start) {
+        List<NonTerminal> nonTerminals = new ArrayList<>();
+        List<Terminal> terminals = new ArrayList<>();
+        Map<Node, Integer> index = new HashMap<>();
+        nonTerminals.add(start);
+        index.put(start, 0);
+        int alternatives = 0;
+        int length = 0;
+        // nonTerminals grows while the rules are walked, index holds the position in its list
+        for (int i = 0; i < nonTerminals.size(); i++) {
+            for (var alt : nonTerminals.get(i).rules) {
+                alternatives++;
+                length += alt.size();
+                for (var p : alt) {
+                    if (!index.containsKey(p.a)) {
+                        if (p.a instanceof NonTerminal nt) {
+                            index.put(nt, nonTerminals.size());
+                            nonTerminals.add(nt);
+                        } else {
+                            index.put(p.a, terminals.size());
+                            terminals.add((Terminal) p.a);
+                        }
+                    }
+                }
+            }
+        }
+
+        int t = terminals.size();
+        String[] names = new String[t + nonTerminals.size()];
+        for (int i = 0; i < t; i++) {
+            names[i] = terminals.get(i).getName();
+        }
+        int[] ruleStart = new int[nonTerminals.size() + 1];
+        int[] altStart = new int[alternatives + 1];
+        int[] elements = new int[length];
+        int a = 0;
+        int e = 0;
+        for (int n = 0; n < nonTerminals.size(); n++) {
+            NonTerminal nt = nonTerminals.get(n);
+            names[t + n] = nt.getName();
+            ruleStart[n] = a;
+            for (var alt : nt.rules) {
+                altStart[a++] = e;
+                for (var p : alt) {
+                    int id = p.a instanceof NonTerminal ? t + index.get(p.a) : index.get(p.a);
+                    elements[e++] = id << 2 | p.b.ordinal();
+                }
+            }
+        }
+        ruleStart[nonTerminals.size()] = a;
+        altStart[a] = e;
+        return new CompactGrammar(names, t, ruleStart, altStart, elements);
+    }
+
+    /**
+     * @param names the names of all symbols, terminals first
+     * @return the grammar with the arrays described in the class comment, which are not copied
+     * @throws IllegalArgumentException if the arrays do not fit together
+     */
+    public static CompactGrammar of(String[] names, int terminalCount, int[] ruleStart,
+                                    int[] altStart, int[] elements) {
+        if (terminalCount < 0 || terminalCount >= names.length ||
+                ruleStart.length != names.length - terminalCount + 1 || !isStarts(ruleStart) ||
+                altStart.length != ruleStart[ruleStart.length - 1] + 1 || !isStarts(altStart) ||
+                elements.length != altStart[altStart.length - 1]) {
+            throw new IllegalArgumentException("inconsistent compact grammar");
+        }
+        for (int code : elements) {
+            if (code >>> 2 >= names.length) {
+                throw new IllegalArgumentException("symbol out of range: " + (code >>> 2));
+            }
+        }
+        return new CompactGrammar(names, terminalCount, ruleStart, altStart, elements);
+    }
+
+    // starts at 0 and never decreases, so every range in it is a valid one
+    private static boolean isStarts(int[] starts) {
+        if (starts[0] != 0) {
+            return false;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            if (starts[i] < starts[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return new {@link Terminal}s and {@link NonTerminal}s with the same rules, the start rule
+     * first.
+     */
+    public NonTerminal toNodes() {
+        Node[] nodes = new Node[names.length];
+        for (int id = 0; id < names.length; id++) {
+            nodes[id] = isTerminal(id) ? new Terminal(names[id], id) : new NonTerminal(names[id]);
+        }
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            NonTerminal nt = (NonTerminal) nodes[terminalCount + n];
+            for (int a = ruleStart[n]; a < ruleStart[n + 1]; a++) {
+                var alt = Alternative.newArray(altStart[a + 1] - altStart[a]);
+                for (int e = altStart[a]; e < altStart[a + 1]; e++) {
+                    alt[e - altStart[a]] = new Pair<>(nodes[symbol(elements[e])],
+                                                      suffix(elements[e]));
+                }
+                nt.addRule(new Alternative(alt));
+            }
+        }
+        return (NonTerminal) nodes[terminalCount];
+    }
+
+    public int symbolCount() {
+        return names.length;
+    }
+
+    public int terminalCount() {
+        return terminalCount;
+    }
+
+    public int nonTerminalCount() {
+        return names.length - terminalCount;
+    }
+
+    public int alternativeCount() {
+        return altStart.length - 1;
+    }
+
+    public int elementCount() {
+        return elements.length;
+    }
+
+    public boolean isTerminal(int id) {
+        return id < terminalCount;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @param n index of the nonterminal, its id minus {@link #terminalCount()}
+     * @return index of its first alternative
+     */
+    public int firstAlternative(int n) {
+        return ruleStart[n];
+    }
+
+    /**
+     * @return index after the last alternative of nonterminal {@code n}
+     */
+    public int endAlternative(int n) {
+        return ruleStart[n + 1];
+    }
+
+    /**
+     * @return index in {@link #elements()} of the first element of alternative {@code a}
+     */
+    public int firstElement(int a) {
+        return altStart[a];
+    }
+
+    public int endElement(int a) {
+        return altStart[a + 1];
+    }
+
+    /**
+     * @return the coded elements of all alternatives, not a copy
+     */
+    public int[] elements() {
+        return elements;
+    }
+
+    public int[] ruleStarts() {
+        return ruleStart;
+    }
+
+    public int[] alternativeStarts() {
+        return altStart;
+    }
+
+    public static int symbol(int code) {
+        return code >>> 2;
+    }
+
+    public static EbnfSuffix suffix(int code) {
+        return SUFFIXES[code & 3];
+    }
+
+    /**
+     * @return bytes of this object and its arrays on a 64-bit JVM with compressed references,
+     * without the names, which both forms share.
+     */
+    public long estimatedBytes() {
+        return align(HEADER + 4 + 4 * REF) + array(REF, names.length) +
+                array(4, ruleStart.length) + array(4, altStart.length) + array(4, elements.length);
+    }
+
+    /**
+     * @return bytes of the {@link Node} form of the rules reachable from {@code start}, estimated
+     * like {@link #estimatedBytes()}. Shared objects are counted once.
+     */
+    public static long estimatedNodeBytes(NonTerminal start) {
+        // Node: header, name; Terminal adds a boolean, NonTerminal a reference
+        long nodeBytes = align(HEADER + REF + REF);
+        // HashMap.Node: header, hash, key, value, next
+        long entryBytes = align(HEADER + 4 + 3 * REF);
+        // HashSet and its HashMap: header and fields
+        long setBytes = align(HEADER + REF) + align(HEADER + 3 * REF + 4 * 4);
+        // Alternative: header, modCount, elements, hash
+        long listBytes = align(HEADER + 4 + REF + 4);
+        // Pair: header, a, b
+        long pairBytes = align(HEADER + 2 * REF);
+
+        Map<Node, Boolean> seen = new IdentityHashMap<>();
+        Map<Object, Boolean> pairs = new IdentityHashMap<>();
+        List<NonTerminal> toVisit = new ArrayList<>();
+        toVisit.add(start);
+        seen.put(start, true);
+        long bytes = 0;
+        for (int i = 0; i < toVisit.size(); i++) {
+            NonTerminal nt = toVisit.get(i);
+            int alts = nt.rules.size();
+            bytes += nodeBytes + setBytes + array(REF, tableSize(alts)) + alts * entryBytes;
+            for (var alt : nt.rules) {
+                bytes += listBytes + array(REF, alt.size());
+                for (var p : alt) {
+                    if (pairs.put(p, true) == null) {
+                        bytes += pairBytes;
+                    }
+                    if (seen.put(p.a, true) == null) {
+                        if (p.a instanceof NonTerminal next) {
+                            toVisit.add(next);
+                        } else {
+                            bytes += nodeBytes;
+                        }
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // table length of a HashSet that grew to size elements
+    private static int tableSize(int size) {
+        int n = 16;
+        while (n * 3 / 4 < size) {
+            n *= 2;
+        }
+        return n;
+    }
+
+    private static long array(int elementBytes, int length) {
+        return align(HEADER + 4 + (long) elementBytes * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CompactGrammar other && terminalCount == other.terminalCount &&
+                Arrays.equals(names, other.names) && Arrays.equals(ruleStart, other.ruleStart) &&
+                Arrays.equals(altStart, other.altStart) && Arrays.equals(elements, other.elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(elements) * 31 + Arrays.hashCode(names);
+    }
+}
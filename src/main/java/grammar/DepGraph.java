@@ -11,6 +11,7 @@ public class DepGraph {
     public HashMap<NonTerminal, Set<Edge>> verts;
     public Set<Edge> edges;
     private Grammar grammar;
+    private final Budget budget;
     public Set<List<NonTerminal>> cycles;
     public Set<List<Edge>> cyclesEdges;
 
@@ -18,17 +19,16 @@ public class DepGraph {
         verts = new HashMap<>();
         edges = new HashSet<>();
         this.grammar = grammar;
+        this.budget = grammar.budget;
         makeGraph();
     }
 
     public void makeGraph() {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(grammar.start);
-        visited.add(grammar.start);
-        verts.put(grammar.start, new HashSet<>());
-        while (!toVisit.isEmpty()) {
-            NonTerminal curr = toVisit.pop();
+        for (var curr : grammar.index().nonTerminals()) {
+            verts.put(curr, new HashSet<>());
+        }
+        for (var curr : grammar.index().nonTerminals()) {
+            budget.checkpoint();
             var currAdj = verts.get(curr);
             for (var altEbnf : curr.rules) {
                 ArrayList<Node> alt = new ArrayList<>();
@@ -41,12 +41,6 @@ public class DepGraph {
                                                 alt.subList(i + 1, alt.size()));
                         currAdj.add(newEdge);
                         edges.add(newEdge);
-                        if (!visited.contains(nt)) {
-                            visited.add(nt);
-                            toVisit.push(nt);
-                            verts.put(nt, new HashSet<>());
-                        }
-
                     }
                 }
             }
@@ -73,6 +67,7 @@ public class DepGraph {
     private void processDFSTree(Stack<NonTerminal> stack, Stack<Edge> edgeStack,
                                 HashMap<NonTerminal, Flag> flags) {
         NonTerminal curr = stack.peek();
+        budget.checkpoint();
 
 
         for (Edge e : verts.get(curr)) {
@@ -116,6 +111,7 @@ public class DepGraph {
 
     public boolean isValid() {
         for (var c : cyclesEdges) {
+            budget.checkpoint();
             if (!isCycleValid(c)) {
                 return false;
             }
@@ -156,22 +152,23 @@ public class DepGraph {
     }
 
     private boolean canDeriveNonemptyString(NonTerminal nt) {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(nt);
-        visited.add(nt);
-        while (!toVisit.isEmpty()) {
-            NonTerminal cur = toVisit.pop();
-            for (var alt : cur.rules) {
-                for (var e : alt) {
-                    if (e.a instanceof Terminal) {
-                        return true;
-                    }
-                    var newNt = (NonTerminal) e.a;
-                    if (!visited.contains(newNt)) {
-                        toVisit.push(newNt);
-                        visited.add(newNt);
-                    }
+        var index = grammar.index();
+        int[] toVisit = new int[index.size()];
+        boolean[] visited = new boolean[index.size()];
+        int top = 0;
+        toVisit[top++] = index.indexOf(nt);
+        visited[toVisit[0]] = true;
+        while (top > 0) {
+            int cur = toVisit[--top];
+            budget.checkpoint();
+            if (index.producesTerminal(cur)) {
+                return true;
+            }
+            for (int k = index.firstSuccessor(cur); k < index.endSuccessor(cur); k++) {
+                int next = index.successor(k);
+                if (!visited[next]) {
+                    visited[next] = true;
+                    toVisit[top++] = next;
                 }
             }
         }
@@ -0,0 +1,15 @@
+package grammar.Exceptions;
+
+import grammar.Phase;
+
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final Phase phase;
+
+    public BudgetExceededException(Phase phase, String message) {
+        super("budget exceeded in phase " + phase + ": " + message);
+        this.phase = phase;
+    }
+}
@@ -0,0 +1,9 @@
+package grammar.Exceptions;
+
+public class LexerGrammarException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public LexerGrammarException(String message){
+        super(message);
+    }
+}
@@ -7,25 +7,35 @@ import org.antlr.v4.runtime.misc.Pair;
 public class Grammar {
 
     public final ArrayList<Pair<Terminal, Terminal>> pairs;
-    public Set<Terminal> call;
-    public Set<Terminal> ret;
+    public TerminalSet call;
+    public TerminalSet ret;
 
     //set of terminals that have an EBNFSuffix
-    private final Set<Terminal> onlyPlain;
+    private TerminalSet onlyPlain;
     public final NonTerminal start;
     private final Set<NonTerminal> nonTerminals;
     private final Set<Terminal> terminals;
+    // terminals by id, shared by all TerminalSets of this grammar
+    private Terminal[] terminalTable;
+    // built when a pass needs it, null after a pass added nonterminals
+    private GrammarIndex index;
+
+    // checked in the loops of all passes, see Budget
+    public final Budget budget;
 
 
     public Grammar(NonTerminal start) {
+        this(start, Budget.UNLIMITED);
+    }
+
+    public Grammar(NonTerminal start, Budget budget) {
+        this.budget = budget;
         pairs = new ArrayList<>();
-        onlyPlain = new HashSet<>();
         this.start = start;
         nonTerminals = new HashSet<>();
         terminals = new HashSet<>();
-        call = new HashSet<>();
-        ret = new HashSet<>();
         getNodes();
+        indexTerminals();
         makePairs();
     }
 
@@ -33,44 +43,86 @@ public class Grammar {
         return nonTerminals.size();
     }
 
+    public int getTermCount() {
+        return terminals.size();
+    }
+
+    public int getAltCount() {
+        int count = 0;
+        for (var nt : nonTerminals) {
+            count += nt.rules.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of symbols on the right hand sides of all rules.
+     */
+    public int getSymbolCount() {
+        int count = 0;
+        for (var nt : nonTerminals) {
+            for (var alt : nt.rules) {
+                count += alt.size();
+            }
+        }
+        return count;
+    }
+
     public Grammar(NonTerminal start, Set<NonTerminal> nonTerminals, Set<Terminal> terminals) {
+        budget = Budget.UNLIMITED;
         pairs = new ArrayList<>();
-        onlyPlain = new HashSet<>();
         this.start = start;
         this.nonTerminals = nonTerminals;
         this.terminals = terminals;
+        indexTerminals();
         makePairs();
     }
 
+    /**
+     * Numbers the terminals by name, so the tag sets iterate in the same order on every run.
+     */
+    private void indexTerminals() {
+        terminalTable = terminals.toArray(new Terminal[0]);
+        Arrays.sort(terminalTable, Comparator.comparing(Terminal::getName));
+        onlyPlain = new TerminalSet(terminalTable);
+        call = onlyPlain.empty();
+        ret = onlyPlain.empty();
+    }
+
+    /**
+     * @return the reachable nonterminals and their successors, built on first use after the
+     * grammar was created or changed.
+     */
+    public GrammarIndex index() {
+        if (index == null) {
+            index = new GrammarIndex(start, budget);
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index, to be called after rules were changed outside of this class.
+     */
+    public void invalidateIndex() {
+        index = null;
+    }
+
     /**
      * To get the set of terminals and nonterminals if it wasn't given to the constructor.
      */
     private void getNodes() {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(start);
-        visited.add(start);
-        while (!toVisit.isEmpty()) {
-            NonTerminal node = toVisit.pop();
-            for (var alt : node.rules) {
-                for (var p : alt) {
-                    if (p.a instanceof NonTerminal) {
-                        this.nonTerminals.add((NonTerminal) p.a);
-                        if (!visited.contains(p.a)) {
-                            visited.add((NonTerminal) p.a);
-                            toVisit.add((NonTerminal) p.a);
-                        }
-                    } else {
-                        this.terminals.add((Terminal) p.a);
-                    }
-                }
+        var idx = index();
+        for (int i = 0; i < idx.size(); i++) {
+            // the start rule is only counted if a rule refers to it
+            if (idx.isReferenced(i)) {
+                nonTerminals.add(idx.nonTerminal(i));
             }
         }
+        terminals.addAll(idx.terminals());
     }
 
-    private Set<NonTerminal> tagAlternative(ArrayList<Pair<Node, EbnfSuffix>> alt) {
-        Set<Terminal> paired = new HashSet<>();
-        Set<NonTerminal> newNonTerms = new HashSet<>();
+    private void tagAlternative(Alternative alt) {
+        TerminalSet paired = onlyPlain.empty();
         boolean foundPair = false;
         for (int i = 0; i < alt.size(); i++) {
             var c = alt.get(i);
@@ -85,29 +137,18 @@ public class Grammar {
                         if (r.a instanceof Terminal && r.b == EbnfSuffix.NONE && !c.a.equals(r.a)) {
                             pairs.add(new Pair<>((Terminal) c.a, (Terminal) r.a));
                             foundPair = true;
-                            paired.add((Terminal) c.a);
-                            paired.add((Terminal) r.a);
+                            paired.set((Terminal) c.a);
+                            paired.set((Terminal) r.a);
                         }
                     }
                 } else {
-                    onlyPlain.add((Terminal) c.a);
+                    onlyPlain.set((Terminal) c.a);
                 }
                 if (!foundPair && !paired.contains(c.a)) {
-                    onlyPlain.add((Terminal) c.a);
+                    onlyPlain.set((Terminal) c.a);
                 }
-            } else {
-                newNonTerms.add((NonTerminal) c.a);
             }
         }
-        return newNonTerms;
-    }
-
-    private Set<NonTerminal> tagRule(Set<ArrayList<Pair<Node, EbnfSuffix>>> rule) {
-        Set<NonTerminal> newNonTerms = new HashSet<>();
-        for (var alt : rule) {
-            newNonTerms.addAll(tagAlternative(alt));
-        }
-        return newNonTerms;
     }
 
     /**
@@ -122,15 +163,20 @@ public class Grammar {
      *                             will be removed from sortedPairs map
      */
     public void tagByPrecedence(boolean removeContradictions) {
-        call = new HashSet<>();
-        ret = new HashSet<>();
-        var counts = countPairs().entrySet().stream().sorted(Map.Entry.comparingByValue());
+        call = onlyPlain.empty();
+        ret = onlyPlain.empty();
+        // equally frequent pairs by terminal names, not by the hash order of the map
+        var counts = countPairs().entrySet().stream().sorted(
+                Map.Entry.<Pair<Terminal, Terminal>, Long>comparingByValue()
+                        .thenComparing(e -> e.getKey().a.getName(), Comparator.reverseOrder())
+                        .thenComparing(e -> e.getKey().b.getName(), Comparator.reverseOrder()));
 
         // stack with pairs sorted such that most frequent pairs are on top.
         Stack<Pair<Terminal, Terminal>> pairsStack = new Stack<>();
         counts.forEach(entry -> pairsStack.push(entry.getKey()));
         while (!pairsStack.isEmpty()) {
             var pair = pairsStack.pop();
+            budget.checkpoint();
             if (pair.a.equals(pair.b) || onlyPlain.contains(pair.a) || onlyPlain.contains(pair.b) ||
                     call.contains(pair.a) || ret.contains(pair.a) || call.contains(pair.b) ||
                     ret.contains(pair.b)) {
@@ -138,8 +184,8 @@ public class Grammar {
                     pairs.removeAll(Collections.singleton(pair));
                 }
             } else {
-                call.add(pair.a);
-                ret.add(pair.b);
+                call.set(pair.a);
+                ret.set(pair.b);
             }
         }
     }
@@ -149,33 +195,23 @@ public class Grammar {
      * remove it from the call set. Same for the return set.
      */
     public void removeNonMatchingTagging() {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(start);
-        while (!toVisit.isEmpty()) {
-            var nt = toVisit.pop();
+        for (var nt : index().nonTerminals()) {
+            budget.checkpoint();
             for (var alts : nt.rules) {
                 Map<Terminal, Integer> counts = new HashMap<>();
                 for (var e : alts) {
-                    if (e.a instanceof Terminal) {
-                        if (e.b == EbnfSuffix.NONE) {
-                            counts.merge((Terminal) e.a, 1, Integer::sum);
-                        }
-                    } else {
-                        if (!visited.contains((NonTerminal) e.a)) {
-                            visited.add((NonTerminal) e.a);
-                            toVisit.push((NonTerminal) e.a);
-                        }
+                    if (e.a instanceof Terminal && e.b == EbnfSuffix.NONE) {
+                        counts.merge((Terminal) e.a, 1, Integer::sum);
                     }
                 }
                 counts.forEach((t, c) -> {
                     if (call.contains(t)) {
                         if (c > counts.getOrDefault(findPair(t, true), 0)) {
-                            onlyPlain.add(t);
+                            onlyPlain.set(t);
                         }
                     } else if (ret.contains(t)) {
                         if (c > counts.getOrDefault(findPair(t, false), 0)) {
-                            onlyPlain.add(t);
+                            onlyPlain.set(t);
                         }
                     }
                 });
@@ -185,7 +221,8 @@ public class Grammar {
 
     /**
      * Converts rule to a simple form by making sure there is only one NonTerminal symbol between a
-     * call - return pair.
+     * call - return pair. Alternatives are rewritten on a copy, every nonterminal gets a new set
+     * of rules. The nonterminals added for the symbols between a pair are converted as well.
      */
     public void convertToSimpleForm() {
         if (call.isEmpty()) {
@@ -193,18 +230,18 @@ public class Grammar {
             return;
         }
         Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(start);
-        visited.add(start);
+        for (var nt : index().nonTerminals()) {
+            toVisit.push(nt);
+        }
+        boolean added = false;
         while (!toVisit.isEmpty()) {
             var nt = toVisit.pop();
-            for (var alt : nt.rules) {
+            budget.checkpoint();
+            Set<Alternative> rules = new HashSet<>();
+            for (var original : nt.rules) {
+                ArrayList<Pair<Node, EbnfSuffix>> alt = new ArrayList<>(original);
                 // find start of a matched token
                 for (int i = 0; i < alt.size(); i++) {
-                    if (alt.get(i).a instanceof NonTerminal && !visited.contains(alt.get(i).a)) {
-                        visited.add((NonTerminal) alt.get(i).a);
-                        toVisit.push((NonTerminal) alt.get(i).a);
-                    }
                     if (call.contains(alt.get(i).a)) {
                         // find end of a matched token
                         // accept it only if there are 2 or more symbols in between
@@ -226,11 +263,18 @@ public class Grammar {
                                 alt.add(i + 1, new Pair(newNonTerm, EbnfSuffix.NONE));
                                 newNonTerm.addRule(rule);
                                 nonTerminals.add(newNonTerm);
+                                toVisit.push(newNonTerm);
+                                added = true;
                             }
                         }
                     }
                 }
+                rules.add(alt.equals(original) ? original : Alternative.of(alt));
             }
+            nt.setRules(rules);
+        }
+        if (added) {
+            invalidateIndex();
         }
     }
 
@@ -252,42 +296,23 @@ public class Grammar {
     }
 
     public boolean isLeftRecursive() {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(start);
-        visited.add(start);
-        while (!toVisit.isEmpty()) {
-            NonTerminal current = toVisit.pop();
+        for (var current : index().nonTerminals()) {
+            budget.checkpoint();
             for (var alt : current.rules) {
                 // if a rule is left recursive
                 if (!alt.isEmpty() && alt.get(0).a.equals(current)) {
                     return true;
                 }
-                alt.stream().filter(e -> e.a instanceof NonTerminal).forEach(e -> {
-                    if (!visited.contains(e.a)) {
-                        toVisit.add((NonTerminal) e.a);
-                        visited.add((NonTerminal) e.a);
-                    }
-                });
             }
         }
         return false;
     }
 
     public void makePairs() {
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> tagged = new HashSet<>();
-        toVisit.push(start);
-        tagged.add(start);
-        while (!toVisit.isEmpty()) {
-            var g = toVisit.pop();
-            // returns a set of new nonTerminals encountered in this rule.
-            var newRules = tagRule(g.rules);
-            for (var nt : newRules) {
-                if (!tagged.contains(nt)) {
-                    tagged.add(nt);
-                    toVisit.add(nt);
-                }
+        for (var nt : index().nonTerminals()) {
+            budget.checkpoint();
+            for (var alt : nt.rules) {
+                tagAlternative(alt);
             }
         }
     }
@@ -299,19 +324,20 @@ public class Grammar {
      * @return a pair with call-return set
      */
     public Pair<Set<Terminal>, Set<Terminal>> bruteForceTagging() {
-        HashSet<Terminal> brCall = new HashSet<>();
-        HashSet<Terminal> brRet = new HashSet<>();
+        TerminalSet brCall = onlyPlain.empty();
+        TerminalSet brRet = onlyPlain.empty();
 
-        for (var c : terminals) {
-            for (var r : terminals) {
+        for (var c : terminalTable) {
+            for (var r : terminalTable) {
+                budget.checkpoint();
                 if (!c.equals(r) && !brRet.contains(c) && !brCall.contains(r)) {
-                    var nc = new HashSet<>(brCall);
-                    nc.add(c);
-                    var nr = new HashSet<>(brRet);
-                    nr.add(r);
+                    var nc = brCall.copy();
+                    nc.set(c);
+                    var nr = brRet.copy();
+                    nr.set(r);
                     if (Helpers.isWellMatched(start, nc, nr)) {
-                        brCall.add(c);
-                        brRet.add(r);
+                        brCall.set(c);
+                        brRet.set(r);
                     }
                 }
             }
@@ -323,16 +349,17 @@ public class Grammar {
      https://www.geeksforgeeks.org/removing-direct-and-indirect-left-recursion-in-a-grammar/
     */
     private NonTerminal removeImmediateLR(NonTerminal nt) {
-        Set<ArrayList<Pair<Node, EbnfSuffix>>> alphas = new HashSet<>();
-        Set<ArrayList<Pair<Node, EbnfSuffix>>> betas = new HashSet<>();
+        Set<Alternative> alphas = new HashSet<>();
+        Set<Alternative> betas = new HashSet<>();
 
         NonTerminal newNonTerm = new NonTerminal(nt.getName() + "`");
-        Set<ArrayList<Pair<Node, EbnfSuffix>>> newRulesA = new HashSet<>();
-        Set<ArrayList<Pair<Node, EbnfSuffix>>> newRulesA1 = new HashSet<>();
+        Set<Alternative> newRulesA = new HashSet<>();
+        Set<Alternative> newRulesA1 = new HashSet<>();
+        Pair<Node, EbnfSuffix> newRef = new Pair<>(newNonTerm, EbnfSuffix.NONE);
 
         for (var rule : nt.rules) {
             if (!rule.isEmpty() && rule.get(0).a.equals(nt)) {
-                alphas.add(new ArrayList<>(rule.subList(1, rule.size())));
+                alphas.add(Alternative.of(rule.subList(1, rule.size())));
             } else {
                 betas.add(rule);
             }
@@ -343,23 +370,19 @@ public class Grammar {
         }
 
         if (betas.isEmpty()) {
-            ArrayList<Pair<Node, EbnfSuffix>> toAdd = new ArrayList<>();
-            toAdd.add(new Pair<>(newNonTerm, EbnfSuffix.NONE));
-            newRulesA.add(toAdd);
+            newRulesA.add(Alternative.of(newRef));
         }
 
         for (var beta : betas) {
-            beta.add(new Pair<>(newNonTerm, EbnfSuffix.NONE));
-            newRulesA.add(beta);
+            newRulesA.add(beta.append(newRef));
         }
 
         for (var alpha : alphas) {
-            alpha.add(new Pair<>(newNonTerm, EbnfSuffix.NONE));
-            newRulesA1.add(alpha);
+            newRulesA1.add(alpha.append(newRef));
         }
 
         nt.setRules(newRulesA);
-        newRulesA1.add(new ArrayList<>());
+        newRulesA1.add(Alternative.EMPTY);
         newNonTerm.setRules(newRulesA1);
         return newNonTerm;
     }
@@ -367,41 +390,32 @@ public class Grammar {
     public void removeLR() {
         Set<NonTerminal> toAdd = new HashSet<>();
         for (var nt : nonTerminals) {
+            budget.checkpoint();
             var newNonTerm = removeImmediateLR(nt);
             if (newNonTerm != null) {
                 toAdd.add(newNonTerm);
             }
         }
-        nonTerminals.addAll(toAdd);
+        if (!toAdd.isEmpty()) {
+            nonTerminals.addAll(toAdd);
+            invalidateIndex();
+        }
     }
 
     public String printTaggedGrammar() {
-        String res = "";
-        Stack<NonTerminal> toVisit = new Stack<>();
-        Set<NonTerminal> visited = new HashSet<>();
-        toVisit.push(start);
-        visited.add(start);
-        while (!toVisit.isEmpty()) {
-            res += "\n\n";
-            NonTerminal current = toVisit.pop();
-            res += printTaggedRule(current);
-            for (var rule : current.rules) {
-                for (var n : rule) {
-                    if (n.a instanceof NonTerminal && !visited.contains(n.a)) {
-                        visited.add((NonTerminal) n.a);
-                        toVisit.push((NonTerminal) n.a);
-                    }
-                }
-            }
+        StringBuilder res = new StringBuilder();
+        for (var current : index().nonTerminals()) {
+            budget.checkpoint();
+            res.append("\n\n").append(printTaggedRule(current));
         }
-        return res;
+        return res.toString();
     }
 
     private String printTaggedRule(NonTerminal nt) {
         StringBuilder res = new StringBuilder();
         res.append(nt.toString());
         boolean fst = true;
-        for (ArrayList<Pair<Node, EbnfSuffix>> alternative : nt.rules) {
+        for (Alternative alternative : nt.rules) {
             if (fst) { // to have ':' at the 1st rule like in ANTLR
                 res.append("\t:");
                 fst = false;
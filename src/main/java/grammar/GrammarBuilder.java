@@ -0,0 +1,210 @@
+package grammar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * Symbol table used while walking a parse tree. Every name is mapped to exactly one
+ * {@link Terminal} or {@link NonTerminal}, so rules can be built from the final objects right
+ * away instead of from names that are resolved afterwards.
+ * <p>
+ * Names read from the grammar are taken from the {@link SymbolPool}, so grammars of the same run
+ * share them.
+ * <p>
+ * Anonymous blocks are hash-consed: blocks with the same set of alternatives share one
+ * {@code _new_rule_N}. Blocks inside a block are shared before the outer block is looked up, so
+ * comparing the alternatives by the identity of their symbols compares the whole structure.
+ */
+public class GrammarBuilder {
+
+    private final Map<String, NonTerminal> nonTerminals = new HashMap<>();
+
+    private final Map<String, Terminal> terminals = new HashMap<>();
+
+    private final Set<NonTerminal> defined = new HashSet<>();
+
+    private NonTerminal start = null;
+
+    private int newRuleCount = 0;
+
+    private final Map<BlockShape, NonTerminal> blocks = new HashMap<>();
+
+    // names of the grammars in import statements and the tokenVocab option
+    private final List<String> imports = new ArrayList<>();
+    private String tokenVocab = null;
+
+    // literals defined by the lexer rules of a combined grammar, to token name
+    private final Map<String, String> literals = new HashMap<>();
+
+    // the hash of the alternatives is computed once, not on every lookup
+    private record BlockShape(Set<Alternative> alternatives, int hash) {
+
+        BlockShape(Set<Alternative> alternatives) {
+            this(alternatives, alternatives.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BlockShape other && hash == other.hash &&
+                    alternatives.equals(other.alternatives);
+        }
+    }
+
+    // names are pooled, so grammars share the strings, see SymbolPool
+    public NonTerminal nonTerminal(String name) {
+        return nonTerminals.computeIfAbsent(SymbolPool.intern(name), NonTerminal::new);
+    }
+
+    // terminals are numbered in the order they are made, see Terminal#id
+    public Terminal terminal(String name) {
+        return terminals.computeIfAbsent(SymbolPool.intern(name),
+                                         n -> new Terminal(n, terminals.size()));
+    }
+
+    /**
+     * Starts the rule {@code name}. The first rule is the start rule.
+     *
+     * @return the nonterminal the alternatives of the rule are added to, or null if the rule was
+     * already defined
+     */
+    public NonTerminal defineRule(String name) {
+        NonTerminal nt = nonTerminal(name);
+        if (!defined.add(nt)) {
+            return null;
+        }
+        if (start == null) {
+            start = nt;
+        }
+        return nt;
+    }
+
+    /**
+     * @return the nonterminal of the anonymous block with these alternatives, a new one if no
+     * block with the same alternatives was seen yet.
+     */
+    public NonTerminal block(Collection<? extends List<Pair<Node, EbnfSuffix>>> alternatives) {
+        Set<Alternative> alts = new HashSet<>();
+        for (var alt : alternatives) {
+            alts.add(Alternative.of(alt));
+        }
+        BlockShape shape = new BlockShape(alts);
+        NonTerminal nt = blocks.get(shape);
+        if (nt == null) {
+            nt = newRule();
+            for (var alt : shape.alternatives) {
+                nt.addRule(alt);
+            }
+            blocks.put(shape, nt);
+        }
+        return nt;
+    }
+
+    private NonTerminal newRule() {
+        newRuleCount++;
+        // not pooled, see SymbolPool
+        NonTerminal nt = nonTerminals.computeIfAbsent("_new_rule_" + newRuleCount,
+                                                      NonTerminal::new);
+        defined.add(nt);
+        return nt;
+    }
+
+    public NonTerminal getStart() {
+        return start;
+    }
+
+    public void addImport(String grammarName) {
+        if (!imports.contains(grammarName)) {
+            imports.add(grammarName);
+        }
+    }
+
+    /**
+     * @return the imported grammars in the order they were added. Grows while imported grammars
+     * are merged, if they import grammars themselves.
+     */
+    public List<String> getImports() {
+        return imports;
+    }
+
+    /**
+     * Sets the tokenVocab option, only the first one counts.
+     */
+    public void setTokenVocab(String grammarName) {
+        if (tokenVocab == null) {
+            tokenVocab = grammarName;
+        }
+    }
+
+    public String getTokenVocab() {
+        return tokenVocab;
+    }
+
+    /**
+     * Records a lexer rule of the grammar that only matches {@code literal}.
+     */
+    public void addLiteral(String literal, String tokenName) {
+        literals.putIfAbsent(literal, tokenName);
+    }
+
+    public Map<String, String> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Replaces every terminal that {@code alias} maps to another name by the terminal of that
+     * name. The alias is looked up once per distinct terminal, the rules are only rewritten if a
+     * terminal was replaced.
+     *
+     * @param alias returns the canonical name of a terminal or null to keep it
+     * @return number of replaced terminals
+     */
+    public int canonicalize(UnaryOperator<String> alias) {
+        Map<Node, Terminal> replace = new IdentityHashMap<>();
+        for (Terminal t : List.copyOf(terminals.values())) {
+            String name = alias.apply(t.getName());
+            if (name != null && !name.equals(t.getName())) {
+                replace.put(t, terminal(name));
+            }
+        }
+        if (replace.isEmpty()) {
+            return 0;
+        }
+        for (NonTerminal nt : nonTerminals.values()) {
+            Set<Alternative> rules = new HashSet<>();
+            for (var alt : nt.rules) {
+                rules.add(canonicalize(alt, replace));
+            }
+            nt.setRules(rules);
+        }
+        return replace.size();
+    }
+
+    // the same alternative if it has no replaced terminal
+    private static Alternative canonicalize(Alternative alt, Map<Node, Terminal> replace) {
+        Pair<Node, EbnfSuffix>[] res = null;
+        for (int i = 0; i < alt.size(); i++) {
+            var p = alt.get(i);
+            Terminal t = replace.get(p.a);
+            if (t != null) {
+                if (res == null) {
+                    res = alt.toArray(Alternative.newArray(alt.size()));
+                }
+                res[i] = new Pair<>(t, p.b);
+            }
+        }
+        return res == null ? alt : new Alternative(res);
+    }
+}
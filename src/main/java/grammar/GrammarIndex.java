@@ -0,0 +1,150 @@
+package grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The nonterminals reachable from the start rule of a {@link Grammar} and the nonterminals each
+ * of them refers to, found by one walk over the rules instead of one per pass.
+ * <p>
+ * Nonterminals are numbered in the order the passes used to visit them: the start rule first,
+ * then the order in which a depth-first walk with a stack takes them off the stack. The
+ * successors of nonterminal {@code i} are {@code successor(firstSuccessor(i)) ..
+ * successor(endSuccessor(i)-1)}, each one once, in the order they first occur in its rules.
+ * <p>
+ * The index describes the rules as they were when it was built. {@link Grammar} drops it when a
+ * pass adds nonterminals, code that changes rules itself has to call
+ * {@link Grammar#invalidateIndex()}.
+ */
+public class GrammarIndex {
+
+    private final NonTerminal[] order;
+    private final Map<NonTerminal, Integer> position;
+    private final int[] succStart;
+    private final int[] succ;
+    // if one of the alternatives of the nonterminal contains a terminal
+    private final boolean[] producesTerminal;
+    // if the nonterminal occurs on a right hand side, the start rule may not
+    private final boolean[] referenced;
+    private final Set<Terminal> terminals;
+
+    GrammarIndex(NonTerminal start, Budget budget) {
+        List<NonTerminal> nts = new ArrayList<>();
+        position = new HashMap<>();
+        terminals = new LinkedHashSet<>();
+        Stack<NonTerminal> toVisit = new Stack<>();
+        Map<NonTerminal, Boolean> visited = new HashMap<>();
+        toVisit.push(start);
+        visited.put(start, true);
+        while (!toVisit.isEmpty()) {
+            NonTerminal nt = toVisit.pop();
+            budget.checkpoint();
+            position.put(nt, nts.size());
+            nts.add(nt);
+            for (var alt : nt.rules) {
+                for (var p : alt) {
+                    if (p.a instanceof NonTerminal next) {
+                        if (visited.put(next, true) == null) {
+                            toVisit.push(next);
+                        }
+                    } else {
+                        terminals.add((Terminal) p.a);
+                    }
+                }
+            }
+        }
+        order = nts.toArray(new NonTerminal[0]);
+
+        // the successors can only be numbered once all nonterminals are
+        succStart = new int[order.length + 1];
+        producesTerminal = new boolean[order.length];
+        referenced = new boolean[order.length];
+        int[] edges = new int[16];
+        int count = 0;
+        int[] seenBy = new int[order.length];
+        Arrays.fill(seenBy, -1);
+        for (int i = 0; i < order.length; i++) {
+            succStart[i] = count;
+            for (var alt : order[i].rules) {
+                for (var p : alt) {
+                    if (p.a instanceof NonTerminal next) {
+                        int j = position.get(next);
+                        if (seenBy[j] != i) {
+                            seenBy[j] = i;
+                            if (count == edges.length) {
+                                edges = Arrays.copyOf(edges, count * 2);
+                            }
+                            edges[count++] = j;
+                            referenced[j] = true;
+                        }
+                    } else {
+                        producesTerminal[i] = true;
+                    }
+                }
+            }
+        }
+        succStart[order.length] = count;
+        succ = Arrays.copyOf(edges, count);
+    }
+
+    /**
+     * @return number of reachable nonterminals
+     */
+    public int size() {
+        return order.length;
+    }
+
+    public NonTerminal nonTerminal(int i) {
+        return order[i];
+    }
+
+    /**
+     * @return the number of {@code nt}, -1 if it is not reachable
+     */
+    public int indexOf(NonTerminal nt) {
+        return position.getOrDefault(nt, -1);
+    }
+
+    /**
+     * @return the reachable nonterminals in the order of their numbers, not a copy
+     */
+    public NonTerminal[] nonTerminals() {
+        return order;
+    }
+
+    /**
+     * @return the reachable terminals in the order they were found
+     */
+    public Set<Terminal> terminals() {
+        return terminals;
+    }
+
+    public int firstSuccessor(int i) {
+        return succStart[i];
+    }
+
+    public int endSuccessor(int i) {
+        return succStart[i + 1];
+    }
+
+    public int successor(int k) {
+        return succ[k];
+    }
+
+    public boolean producesTerminal(int i) {
+        return producesTerminal[i];
+    }
+
+    /**
+     * @return true if nonterminal {@code i} is referred to on the right hand side of a rule
+     */
+    public boolean isReferenced(int i) {
+        return referenced[i];
+    }
+}
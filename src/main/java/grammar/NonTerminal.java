@@ -1,24 +1,27 @@
 package grammar;
 
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.antlr.v4.runtime.misc.Pair;
 
 public class NonTerminal extends Node {
 
-    public Set<ArrayList<Pair<Node, EbnfSuffix>>> rules;
+    public Set<Alternative> rules;
 
     public NonTerminal(String label) {
         super(label);
         rules = new HashSet<>();
     }
 
-    public void addRule(ArrayList<Pair<Node, EbnfSuffix>> rule) {
-        rules.add(rule);
+    /**
+     * Adds {@code rule} as an alternative, copied unless it is an {@link Alternative} already.
+     */
+    public void addRule(List<Pair<Node, EbnfSuffix>> rule) {
+        rules.add(Alternative.of(rule));
     }
 
-    public void setRules(Set<ArrayList<Pair<Node, EbnfSuffix>>> rules) {
+    public void setRules(Set<Alternative> rules) {
         this.rules = rules;
     }
 
@@ -26,7 +29,7 @@ public class NonTerminal extends Node {
         StringBuilder str = new StringBuilder();
         str.append(super.getName());
         boolean fst = true;
-        for (ArrayList<Pair<Node, EbnfSuffix>> alternative : rules) {
+        for (Alternative alternative : rules) {
             if (fst) { // to have ':' at the 1st rule like in ANTLR
                 str.append("\t:");
                 fst = false;
@@ -0,0 +1,14 @@
+package grammar;
+
+/**
+ * Phases of the conversion of a single grammar, in the order they run.
+ */
+public enum Phase {
+    PARSE,
+    IR_BUILD,
+    LR_REMOVAL,
+    TAGGING,
+    SIMPLE_FORM,
+    DEP_GRAPH,
+    WRITE
+}
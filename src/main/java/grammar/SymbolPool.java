@@ -0,0 +1,66 @@
+package grammar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Names of terminals and nonterminals shared by all grammars of a run. Most grammars use the same
+ * names, like {@code '('}, {@code ';'} or {@code ID}, so every name is kept once instead of once
+ * per grammar. Only names read from grammars are pooled. The names the converter makes, like
+ * {@code _new_rule_1}, {@code expr`} and {@code _L_...}, stay plain strings: the pool keeps its
+ * names for the whole run, and most of them are unique to one grammar.
+ * <p>
+ * Pooling does not save time: every name costs a probe of the pool, which hashes the fresh
+ * string, on top of the caller's own map lookup. It only saves memory while many grammars are
+ * alive at the same time. In a batch that drops each grammar after converting it, the pool just
+ * retains names, at most {@link #limit} of them.
+ * <p>
+ * Only the names are shared, every grammar still has its own {@link Terminal} and
+ * {@link NonTerminal} objects, because the passes change them.
+ */
+public class SymbolPool {
+
+    // no names are added once the pool is this big, so a long running server cannot grow it
+    // without bound
+    public static int limit = 1 << 20;
+
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+
+    private static final LongAdder lookups = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+
+    /**
+     * @return the pooled string equal to {@code name}, {@code name} itself if there is none.
+     */
+    public static String intern(String name) {
+        lookups.increment();
+        String pooled = NAMES.get(name);
+        if (pooled != null) {
+            hits.increment();
+            return pooled;
+        }
+        if (NAMES.size() >= limit) {
+            return name;
+        }
+        pooled = NAMES.putIfAbsent(name, name);
+        return pooled == null ? name : pooled;
+    }
+
+    /**
+     * @return true if the converter made {@code name}. Rule and token names in a grammar start
+     * with a letter, the names of anonymous blocks and of the rules of the simple form with an
+     * underscore.
+     */
+    public static boolean isSynthesized(String name) {
+        return name.startsWith("_");
+    }
+
+    public static int size() {
+        return NAMES.size();
+    }
+
+    public static String describe() {
+        return "symbol names: " + NAMES.size() + " pooled, " + hits.sum() + " of " +
+                lookups.sum() + " lookups shared";
+    }
+}
@@ -4,8 +4,12 @@ public class Terminal extends Node {
 
     public boolean isNotSet = false;
 
-    public Terminal(String label) {
+    // dense number among the terminals made by one GrammarBuilder, see TerminalSet
+    public final int id;
+
+    public Terminal(String label, int id) {
         super(label);
+        this.id = id;
     }
 
     @Override
@@ -0,0 +1,189 @@
+package grammar;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of the terminals of one {@link Grammar} as a bit per terminal, numbered by their position
+ * in the array given to the constructor. A membership test reads the position from an array
+ * indexed by {@link Terminal#id} and loads a word, the terminals' own hash and equals are never
+ * called.
+ * <p>
+ * The {@link java.util.Set} methods only read, so the set can be handed out as it is. It is
+ * changed with {@link #set} and {@link #unset}. Sets made with {@link #empty} and {@link #copy}
+ * share the numbering, terminals not in the array are never contained. The ids are fixed when
+ * the terminals are made and the passes only add nonterminals, so the numbering stays valid
+ * while a grammar is converted, and several grammars over the same terminals do not disturb
+ * each other.
+ */
+public class TerminalSet extends AbstractSet<Terminal> {
+
+    // terminals of the grammar by number, and the numbers by Terminal.id, -1 if not in it
+    private final Terminal[] universe;
+    private final int[] slots;
+
+    private final long[] words;
+
+    private int size = 0;
+
+    /**
+     * @param universe the terminals the set can contain, not copied
+     * @throws IllegalArgumentException if two of them have the same id
+     */
+    public TerminalSet(Terminal[] universe) {
+        this.universe = universe;
+        int maxId = -1;
+        for (Terminal t : universe) {
+            maxId = Math.max(maxId, t.id);
+        }
+        this.slots = new int[maxId + 1];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < universe.length; i++) {
+            if (slots[universe[i].id] >= 0) {
+                throw new IllegalArgumentException("terminals of different grammars: " +
+                                                           universe[i]);
+            }
+            slots[universe[i].id] = i;
+        }
+        this.words = new long[(universe.length + 63) >>> 6];
+    }
+
+    private TerminalSet(TerminalSet other, boolean contents) {
+        this.universe = other.universe;
+        this.slots = other.slots;
+        this.words = contents ? other.words.clone() : new long[other.words.length];
+        this.size = contents ? other.size : 0;
+    }
+
+    /**
+     * @return a new set with the same terminals, changing it does not change this one.
+     */
+    public TerminalSet copy() {
+        return new TerminalSet(this, true);
+    }
+
+    /**
+     * @return a new empty set over the same terminals.
+     */
+    public TerminalSet empty() {
+        return new TerminalSet(this, false);
+    }
+
+    public boolean contains(Terminal t) {
+        int i = slot(t);
+        return i >= 0 && (words[i >>> 6] & 1L << i) != 0;
+    }
+
+    // the number of t, -1 if it is not a terminal of the grammar
+    private int slot(Terminal t) {
+        if (t.id >= slots.length) {
+            return -1;
+        }
+        int i = slots[t.id];
+        // a terminal of another grammar may have the same id
+        return i >= 0 && universe[i] == t ? i : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Terminal t && contains(t);
+    }
+
+    /**
+     * Adds {@code t}.
+     *
+     * @return true if it was not in the set yet
+     * @throws IllegalArgumentException if {@code t} is not a terminal of the grammar
+     */
+    public boolean set(Terminal t) {
+        int i = slot(t);
+        if (i < 0) {
+            throw new IllegalArgumentException(t + " is not a terminal of this grammar");
+        }
+        long bit = 1L << i;
+        if ((words[i >>> 6] & bit) != 0) {
+            return false;
+        }
+        words[i >>> 6] |= bit;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes {@code t}.
+     *
+     * @return true if it was in the set
+     */
+    public boolean unset(Terminal t) {
+        int i = slot(t);
+        if (i < 0 || (words[i >>> 6] & 1L << i) == 0) {
+            return false;
+        }
+        words[i >>> 6] &= ~(1L << i);
+        size--;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Iterates in the order of the array given to the constructor.
+     */
+    @Override
+    public Iterator<Terminal> iterator() {
+        return new Iterator<>() {
+            private int next = nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Terminal next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                Terminal t = universe[next];
+                next = nextSetBit(next + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextSetBit(int from) {
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & -1L << from;
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof TerminalSet other && other.universe == universe) {
+            return Arrays.equals(words, other.words);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // the same as for any set of these terminals
+        return super.hashCode();
+    }
+}
@@ -0,0 +1,160 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import grammar.CompactGrammar;
+import grammar.EbnfSuffix;
+import grammar.GrammarBuilder;
+import grammar.Node;
+import grammar.NonTerminal;
+import grammar.Terminal;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.antlr.v4.runtime.misc.Pair;
+import org.junit.Test;
+
+public class IrCodecTest {
+
+    private static Pair<Node, EbnfSuffix> p(Node n, EbnfSuffix suffix) {
+        return new Pair<>(n, suffix);
+    }
+
+    // expr : expr '+' atom | atom ; atom : '(' expr ')' | ID* | ; list : atom (',' atom)+ ;
+    private static NonTerminal grammar() {
+        GrammarBuilder b = new GrammarBuilder();
+        NonTerminal expr = b.defineRule("expr");
+        NonTerminal atom = b.defineRule("atom");
+        NonTerminal list = b.defineRule("list");
+        Terminal plus = b.terminal("'+'");
+        Terminal lp = b.terminal("'('");
+        Terminal rp = b.terminal("')'");
+        Terminal id = b.terminal("ID");
+        Terminal comma = b.terminal("','");
+        expr.addRule(List.of(p(expr, EbnfSuffix.NONE), p(plus, EbnfSuffix.NONE),
+                             p(atom, EbnfSuffix.NONE)));
+        expr.addRule(List.of(p(atom, EbnfSuffix.NONE), p(list, EbnfSuffix.QUESTION)));
+        atom.addRule(List.of(p(lp, EbnfSuffix.NONE), p(expr, EbnfSuffix.NONE),
+                             p(rp, EbnfSuffix.NONE)));
+        atom.addRule(List.of(p(id, EbnfSuffix.STAR)));
+        atom.addRule(List.of());
+        NonTerminal rest = b.block(List.of(List.of(p(comma, EbnfSuffix.NONE),
+                                                   p(atom, EbnfSuffix.NONE))));
+        list.addRule(List.of(p(atom, EbnfSuffix.NONE), p(rest, EbnfSuffix.PLUS)));
+        return expr;
+    }
+
+    // the reachable rules by name, independent of the order of the rule sets
+    private static Map<String, Set<List<String>>> rules(NonTerminal start) {
+        Map<String, Set<List<String>>> res = new TreeMap<>();
+        List<NonTerminal> toVisit = new ArrayList<>(List.of(start));
+        for (int i = 0; i < toVisit.size(); i++) {
+            NonTerminal nt = toVisit.get(i);
+            if (res.containsKey(nt.getName())) {
+                continue;
+            }
+            Set<List<String>> alts = new HashSet<>();
+            for (var alt : nt.rules) {
+                List<String> elements = new ArrayList<>();
+                for (var e : alt) {
+                    elements.add((e.a instanceof Terminal ? "T:" : "N:") + e.a.getName() + ":" +
+                                         e.b);
+                    if (e.a instanceof NonTerminal next) {
+                        toVisit.add(next);
+                    }
+                }
+                alts.add(elements);
+            }
+            res.put(nt.getName(), alts);
+        }
+        return res;
+    }
+
+    @Test
+    public void compactRoundTrip() {
+        NonTerminal start = grammar();
+        CompactGrammar compact = CompactGrammar.of(start);
+        assertEquals(5, compact.terminalCount());
+        assertEquals(4, compact.nonTerminalCount());
+        NonTerminal copy = compact.toNodes();
+        assertEquals("expr", copy.getName());
+        assertEquals(rules(start), rules(copy));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Path dir = Files.createTempDirectory("ir");
+        File file = dir.resolve("X.ir").toFile();
+        NonTerminal start = grammar();
+        GrammarResult saved = new GrammarResult(Paths.get("X.g4"));
+        saved.imports = 2;
+        saved.aliasedTerminals = 3;
+        saved.preScan = GrammarPreScan.Verdict.CONVERT;
+        saved.llFallback = true;
+        saved.diagnostics.syntaxError(null, null, 1, 0, "x", null);
+        IrCodec.save(file, "hash", start, saved);
+
+        GrammarResult loaded = new GrammarResult(Paths.get("X.g4"));
+        NonTerminal copy = IrCodec.load(file, "hash", loaded);
+        assertNotNull(copy);
+        assertEquals(rules(start), rules(copy));
+        assertEquals(2, loaded.imports);
+        assertEquals(3, loaded.aliasedTerminals);
+        assertEquals(GrammarPreScan.Verdict.CONVERT, loaded.preScan);
+        assertTrue(loaded.llFallback);
+        assertEquals(1, loaded.diagnostics.syntaxErrors());
+
+        // the grammar changed
+        assertNull(IrCodec.load(file, "other", new GrammarResult(Paths.get("X.g4"))));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("ir");
+        File file = dir.resolve("X.ir").toFile();
+        IrCodec.save(file, "hash", grammar(), new GrammarResult(Paths.get("X.g4")));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+            assertNull("prefix of " + length + " bytes",
+                       IrCodec.load(file, "hash", new GrammarResult(Paths.get("X.g4"))));
+        }
+    }
+
+    @Test
+    public void inconsistentArraysAreRejected() {
+        String[] names = {"'a'", "s", "t"};
+        // s : 'a' t ; t : 'a' ;
+        int[] ruleStart = {0, 1, 2};
+        int[] altStart = {0, 2, 3};
+        int[] elements = {0, 2 << 2, 0};
+        assertEquals("s", CompactGrammar.of(names, 1, ruleStart, altStart, elements)
+                .toNodes().getName());
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 3, ruleStart, altStart, elements));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, new int[] {0, 2}, altStart, elements));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, new int[] {0, 3, 2}, altStart, elements));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, ruleStart, new int[] {0, 2, 4}, elements));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, ruleStart, new int[] {1, 0, 3}, elements));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, ruleStart, altStart, new int[] {0, 8}));
+        assertThrows(IllegalArgumentException.class,
+                     () -> CompactGrammar.of(names, 1, ruleStart, altStart,
+                                             new int[] {0, 3 << 2, 0}));
+    }
+}
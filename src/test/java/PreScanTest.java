@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+
+import grammar.Exceptions.ActionException;
+import java.util.List;
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Test;
+
+/**
+ * Checks that {@link GrammarPreScan} rejects exactly the grammars {@link MyVisitor} would reject
+ * after parsing them.
+ */
+public class PreScanTest {
+
+    private static final Object[][] CASES = {
+            {"grammar X;\na : b {f();} c ;\nb : 'b' ;\nc : 'c' ;\n",
+                    GrammarPreScan.Verdict.ACTION},
+            {"grammar X;\na : {p()}? b ;\nb : 'b' ;\n",
+                    GrammarPreScan.Verdict.PREDICATE},
+            {"lexer grammar L;\nA : 'a' {skip();} ;\n",
+                    GrammarPreScan.Verdict.LEXER},
+            {"grammar X;\n@header {import x;}\n@parser::members {int n;}\na : 'a' ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\na returns [int v] locals [int w] @init {w = 0;} @after {f();} : 'a' ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\na : ( @init {f();} : 'a' | 'b' ) ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\na : 'a' ;\ncatch [RecognitionException e] {f();}\nfinally {g();}\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\na : 'a' ;\na : {f();} 'b' ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\na : 'a' {f();} ;\na : 'b' ;\n",
+                    GrammarPreScan.Verdict.ACTION},
+            {"grammar X;\na : B ;\nB : 'b' {skip();} ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+            {"grammar X;\noptions { superClass = P; }\ntokens { T }\na[int x] : b[3] ;\nb[int y] : 'b' ;\n",
+                    GrammarPreScan.Verdict.CONVERT},
+    };
+
+    @Test
+    public void agreesWithVisitor() {
+        for (Object[] c : CASES) {
+            String grammar = (String) c[0];
+            var input = CharStreams.fromString(grammar);
+            GrammarPreScan.Verdict verdict = GrammarPreScan.scan(ParserPool.lex(input,
+                                                                                new Diagnostics()));
+            ParserPool.release();
+            assertEquals(grammar, c[1], verdict);
+            assertEquals(grammar, verdict, visit(grammar));
+        }
+    }
+
+    @Test
+    public void referencesLikeTheVisitor() {
+        String grammar = "parser grammar P;\noptions { superClass = Q; tokenVocab = a.PLexer; }\n" +
+                "import A, B = C;\ns : x=ID ;\n";
+        var tokens = ParserPool.lex(CharStreams.fromString(grammar), new Diagnostics());
+        List<String> references = GrammarPreScan.references(tokens);
+        ParserPool.release();
+        assertEquals(List.of("PLexer", "A", "C"), references);
+
+        MyVisitor visitor = new MyVisitor();
+        visitor.visit(ParserPool.parse(CharStreams.fromString(grammar), null));
+        assertEquals(List.of("A", "C"), visitor.getBuilder().getImports());
+        assertEquals("PLexer", visitor.getBuilder().getTokenVocab());
+    }
+
+    // what the visitor makes of the grammar, in terms of the pre-scan
+    private static GrammarPreScan.Verdict visit(String grammar) {
+        Diagnostics diagnostics = new Diagnostics();
+        var tree = ParserPool.parse(CharStreams.fromString(grammar), diagnostics, true);
+        assertEquals(grammar + diagnostics.messages(), 0, diagnostics.syntaxErrors());
+        MyVisitor visitor = new MyVisitor();
+        try {
+            visitor.visit(tree);
+        } catch (ActionException e) {
+            // the visitor does not tell actions from predicates
+            return grammar.contains("}?") ? GrammarPreScan.Verdict.PREDICATE :
+                    GrammarPreScan.Verdict.ACTION;
+        }
+        return visitor.getBuilder().getStart() == null ? GrammarPreScan.Verdict.LEXER :
+                GrammarPreScan.Verdict.CONVERT;
+    }
+}
@@ -0,0 +1,107 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import grammar.EbnfSuffix;
+import grammar.GrammarBuilder;
+import grammar.Node;
+import grammar.NonTerminal;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.Test;
+
+public class VisitorTest {
+
+    private static GrammarBuilder visit(String grammar) {
+        GrammarBuilder builder = new GrammarBuilder();
+        Diagnostics diagnostics = new Diagnostics();
+        ParseTree tree = ParserPool.parse(CharStreams.fromString(grammar), diagnostics, true);
+        new MyVisitor(builder, false, diagnostics).visit(tree);
+        return builder;
+    }
+
+    // the alternatives of a rule, written like in the grammar
+    private static Set<String> rules(NonTerminal nt) {
+        Set<String> res = new HashSet<>();
+        for (var alt : nt.rules) {
+            StringBuilder sb = new StringBuilder();
+            for (Pair<Node, EbnfSuffix> p : alt) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(p.a == null ? "null" : p.a.getName());
+                switch (p.b) {
+                    case QUESTION -> sb.append('?');
+                    case STAR -> sb.append('*');
+                    case PLUS -> sb.append('+');
+                }
+            }
+            res.add(sb.toString());
+        }
+        return res;
+    }
+
+    @Test
+    public void rulesOfAlternatives() {
+        GrammarBuilder b = visit("grammar X;\na : 'x' b? | b ID+ | ;\nb : c=ID (a | 'y')* ;\n");
+        NonTerminal a = b.getStart();
+        assertEquals("a", a.getName());
+        assertEquals(Set.of("'x' b?", "b ID+", ""), rules(a));
+        assertEquals(Set.of("ID _new_rule_1*"), rules(b.nonTerminal("b")));
+        assertEquals(Set.of("a", "'y'"), rules(b.nonTerminal("_new_rule_1")));
+    }
+
+    @Test
+    public void elementsOfBlocksStayInTheirAlternative() {
+        GrammarBuilder b = visit("grammar X;\na : 'x' ('y' 'z' | b) 'w' ;\nb : ID ;\n");
+        assertEquals(Set.of("'x' _new_rule_1 'w'"), rules(b.getStart()));
+        assertEquals(Set.of("'y' 'z'", "b"), rules(b.nonTerminal("_new_rule_1")));
+    }
+
+    @Test
+    public void labelWithoutElementIsSkipped() {
+        // recovering from the missing element would swallow a rule after it
+        GrammarBuilder b = visit("grammar X;\na : b x= ;\n");
+        assertEquals(Set.of("b"), rules(b.getStart()));
+    }
+
+    @Test
+    public void allocationPerElementStaysFlat() {
+        double shortAlts = bytesPerElement(64);
+        double longAlts = bytesPerElement(2048);
+        assertTrue("bytes per element grew from " + shortAlts + " to " + longAlts,
+                   longAlts < 2 * shortAlts);
+    }
+
+    private static double bytesPerElement(int length) {
+        StringBuilder sb = new StringBuilder("grammar Bench;\nstart\n");
+        for (int a = 0; a < 8; a++) {
+            sb.append(a == 0 ? "    :" : "    |");
+            for (int i = 0; i < length; i++) {
+                switch (i % 4) {
+                    case 0 -> sb.append(" T").append(i % 32);
+                    case 1 -> sb.append(" 'k").append(i % 16).append("'?");
+                    case 2 -> sb.append(" start*");
+                    default -> sb.append(" ID+");
+                }
+            }
+            sb.append('\n');
+        }
+        sb.append("    ;\n");
+        ParseTree tree = ParserPool.parse(CharStreams.fromString(sb.toString()), null);
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int rounds = 5;
+        for (int i = 0; i < rounds; i++) {
+            new MyVisitor().visit(tree);
+        }
+        long bytes = mx.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            new MyVisitor().visit(tree);
+        }
+        bytes = mx.getCurrentThreadAllocatedBytes() - bytes;
+        return (double) bytes / rounds / (8L * length);
+    }
+}